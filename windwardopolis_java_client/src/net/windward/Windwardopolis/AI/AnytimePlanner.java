@@ -0,0 +1,99 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.GameStateSnapshot;
+import net.windward.Windwardopolis.api.Passenger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Improves on the greedy pickup order for as long as the turn budget allows. The greedy order only looks at one
+ * passenger at a time. This looks ahead: each candidate is scored by the best points per step of a sequence of
+ * deliveries that starts with it, found by a RoutePlanner beam search.
+ *
+ * The beam is widened step by step - MIN_BEAM_WIDTH, then twice that, and so on. Each width is a complete re-ranking,
+ * so when the deadline arrives the widest fully completed ranking is used and a partly done search is thrown away. If
+ * not even the narrowest search finishes, the greedy order is sent unchanged.
+ */
+public class AnytimePlanner {
+
+    /**
+     * The most deliveries in a sequence.
+     */
+    private static final int MAX_DEPTH = 6;
+
+    /**
+     * The narrowest beam tried.
+     */
+    private static final int MIN_BEAM_WIDTH = 16;
+
+    /**
+     * The widest beam tried.
+     */
+    private static final int MAX_BEAM_WIDTH = 1024;
+
+    private final RoutePlanner routes;
+
+    public AnytimePlanner(BusStopDistanceMatrix stopDistances) {
+        routes = new RoutePlanner(stopDistances);
+    }
+
+    /**
+     * Re-rank the pickup order.
+     *
+     * @param game         The game now.
+     * @param greedyOrder  The passengers to choose from, best first by the greedy comparator.
+     * @param pickupCosts  pickupCosts[i] is the number of steps from our limo to greedyOrder[i]'s lobby.
+     * @param deadline     Stop refining at this System.nanoTime().
+     * @param metrics      Updated with what was done.
+     * @return The refined order. The greedy order if no look-ahead completed in time.
+     */
+    public final ArrayList<Passenger> Plan(GameStateSnapshot game, ArrayList<Passenger> greedyOrder, int[] pickupCosts, long deadline, PlanMetrics metrics) {
+        final Passenger[] candidates = greedyOrder.toArray(new Passenger[greedyOrder.size()]);
+        routes.Load(game, candidates, pickupCosts);
+
+        ArrayList<Passenger> best = greedyOrder;
+        int depthCompleted = 0;
+        int widthCompleted = 0;
+        long plansEvaluated = 0;
+        boolean timedOut = false;
+        final double[] values = new double[candidates.length];
+        for (int width = MIN_BEAM_WIDTH; width <= MAX_BEAM_WIDTH; width *= 2) {
+            boolean completed = routes.Search(width, MAX_DEPTH, deadline, values);
+            plansEvaluated += routes.getSequencesEvaluated();
+            if (!completed) {
+                timedOut = true;
+                break;
+            }
+
+            // stable sort so ties stay in greedy order.
+            Integer[] order = new Integer[candidates.length];
+            for (int ind = 0; ind < order.length; ind++) {
+                order[ind] = ind;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Double.compare(values[i2], values[i1]);
+                }
+            });
+            best = new ArrayList<Passenger>(candidates.length);
+            for (Integer ind : order) {
+                best.add(candidates[ind]);
+            }
+            depthCompleted = routes.getDepthReached();
+            widthCompleted = width;
+
+            // nothing was dropped, so a wider beam would find the same sequences.
+            if (!routes.getPruned()) {
+                break;
+            }
+        }
+
+        metrics.setDepthCompleted(depthCompleted);
+        metrics.setBeamWidth(widthCompleted);
+        metrics.setPlansEvaluated(plansEvaluated);
+        metrics.setTimedOut(timedOut);
+        return best;
+    }
+}
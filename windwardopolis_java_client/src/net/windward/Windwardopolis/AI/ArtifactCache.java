@@ -0,0 +1,298 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.Map;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the compiled pathfinding data of each map - the RoadGraph and the BusStopDistanceMatrix (the flow field to
+ * each bus stop and the stop to stop costs and paths) - so a map played before, or a setup sent again after a
+ * reconnect, starts with it all built.
+ *
+ * An entry is keyed by a SHA-1 of the map's content: its size, every packed tile and the bus stops in company order.
+ * The last matrix is kept in memory, and each one is written to DIRECTORY as map-key.bin and read back with
+ * FileChannel.map. A file starts with a header - MAGIC, VERSION, the RoadGraph cost constants it was built with, the
+ * file's length and the key - and ends with END. A file that doesn't match or won't read is a miss, and the matrix is
+ * built (and the file written) again. So a file built with other costs is never used, and VERSION only needs bumping
+ * when the file layout (or how the graph is built from the map) changes.
+ *
+ * Only reads are mapped, and only once the header has been read (with a plain read) and matches. A mapped file can't
+ * be renamed over or deleted on Windows until the mapping is garbage collected, so the file is written with
+ * FileChannel.write, and a file from another version is never mapped and can be replaced.
+ */
+public final class ArtifactCache {
+
+    /**
+     * Set -Dwindward.artifactCache=false to always build.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("windward.artifactCache", "true"));
+
+    /**
+     * Where the files go. Set with -Dwindward.cacheDir=dir - the default is windwardopolis in the temp directory.
+     */
+    public static final File DIRECTORY = new File(System.getProperty("windward.cacheDir",
+            new File(System.getProperty("java.io.tmpdir"), "windwardopolis").getPath()));
+
+    // "WWAC"
+    private static final int MAGIC = 0x43415757;
+    // the file layout - the costs are checked on their own (COSTS).
+    private static final int VERSION = 3;
+    private static final int END = ~MAGIC;
+    // the key is written as its 40 hex digits.
+    private static final int KEY_LENGTH = 40;
+    // what every edge cost in the file is made of - a file built with other values is a miss.
+    private static final int[] COSTS = {RoadGraph.STEP_COST, RoadGraph.STOP_SIGN_COST, RoadGraph.SIGNAL_COST,
+            RoadGraph.TURN_COST, RoadGraph.U_TURN_COST};
+    // MAGIC, VERSION, COSTS, the length and the key.
+    private static final int HEADER_LENGTH = 12 + 4 * COSTS.length + KEY_LENGTH;
+
+    private static String lastKey;
+    private static BusStopDistanceMatrix lastMatrix;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ArtifactCache() {
+    }
+
+    /**
+     * The key of a map's entry.
+     *
+     * @param map       The game map.
+     * @param companies All of the companies, in the order the matrix is built for.
+     * @return The SHA-1 of the map's content, in hex.
+     */
+    public static String Key(Map map, List<Company> companies) {
+        int numTiles = map.getWidth() * map.getHeight();
+        ByteBuffer buf = ByteBuffer.allocate(12 + 2 * numTiles + 8 * companies.size()).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(map.getWidth());
+        buf.putInt(map.getHeight());
+        for (int tile = 0; tile < numTiles; tile++) {
+            buf.putShort(map.Tile(tile));
+        }
+        buf.putInt(companies.size());
+        for (Company company : companies) {
+            buf.putInt(company.getBusStop().x);
+            buf.putInt(company.getBusStop().y);
+        }
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(buf.array());
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM has SHA-1.
+            throw new IllegalStateException(ex);
+        }
+        StringBuilder key = new StringBuilder(KEY_LENGTH);
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * The matrix (and graph) of a map, from memory or from its file.
+     *
+     * @param key       The map's Key.
+     * @param companies All of the companies, in the order the key was made with.
+     * @return The matrix, null if it is not cached.
+     */
+    public static synchronized BusStopDistanceMatrix Load(String key, List<Company> companies) {
+        if (!ENABLED) {
+            return null;
+        }
+        if (key.equals(lastKey)) {
+            hits.incrementAndGet();
+            return new BusStopDistanceMatrix(lastMatrix, companies);
+        }
+        File file = FileOf(key);
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                int read = 0;
+                while (header.hasRemaining() && (read >= 0)) {
+                    read = channel.read(header);
+                }
+                header.flip();
+                if ((header.remaining() < HEADER_LENGTH) || (header.getInt() != MAGIC) || (header.getInt() != VERSION)) {
+                    throw new IllegalStateException("not a version " + VERSION + " file");
+                }
+                for (int cost : COSTS) {
+                    if (header.getInt() != cost) {
+                        throw new IllegalStateException("built with other road costs");
+                    }
+                }
+                if (header.getInt() != channel.size()) {
+                    throw new IllegalStateException("the length does not match");
+                }
+                byte[] fileKey = new byte[KEY_LENGTH];
+                header.get(fileKey);
+                if (!key.equals(new String(fileKey, "US-ASCII"))) {
+                    throw new IllegalStateException("the key does not match");
+                }
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, channel.size() - HEADER_LENGTH);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                RoadGraph graph = RoadGraph.Read(buf);
+                BusStopDistanceMatrix matrix = BusStopDistanceMatrix.Read(graph, companies, buf);
+                if (buf.getInt() != END) {
+                    throw new IllegalStateException("no end marker");
+                }
+                lastKey = key;
+                lastMatrix = matrix;
+                hits.incrementAndGet();
+                return matrix;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ex) {
+            System.out.println("Ignoring cached map data " + file + ": " + ex);
+        } catch (RuntimeException ex) {
+            System.out.println("Ignoring cached map data " + file + ": " + ex);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keep a matrix (and its graph) built for a map, in memory and in its file. The file is written to a temp file
+     * (not mapped - see above) and then renamed, so a reader never sees part of one. A failure to write it is printed
+     * and otherwise ignored.
+     *
+     * @param key    The map's Key.
+     * @param matrix The matrix.
+     */
+    public static synchronized void Save(String key, BusStopDistanceMatrix matrix) {
+        if (!ENABLED) {
+            return;
+        }
+        lastKey = key;
+        lastMatrix = matrix;
+
+        File file = FileOf(key);
+        File temp = null;
+        try {
+            if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+                throw new IOException("can't create " + DIRECTORY);
+            }
+            temp = File.createTempFile("map-", ".tmp", DIRECTORY);
+            RoadGraph graph = matrix.getGraph();
+            int size = HEADER_LENGTH + graph.ByteSize() + matrix.ByteSize() + 4;
+            ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            for (int cost : COSTS) {
+                buf.putInt(cost);
+            }
+            buf.putInt(size);
+            buf.put(key.getBytes("US-ASCII"));
+            graph.Write(buf);
+            matrix.Write(buf);
+            buf.putInt(END);
+            buf.flip();
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.out.println("Could not save map data to " + file + ": " + ex);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Drop the matrix kept in memory, so the next Load reads its file.
+     */
+    public static synchronized void Forget() {
+        lastKey = null;
+        lastMatrix = null;
+    }
+
+    /**
+     * Build a map's matrix on the PickupScorer pool (as BusStopDistanceMatrix.Start does) and Save it.
+     *
+     * @param key       The map's Key.
+     * @param graph     The map's road graph.
+     * @param companies All of the companies. Must not change while the matrix is built.
+     * @return The build - join it for the matrix.
+     */
+    public static ForkJoinTask<BusStopDistanceMatrix> Build(final String key, final RoadGraph graph, final List<Company> companies) {
+        return PickupScorer.getPool().submit(new Callable<BusStopDistanceMatrix>() {
+            public BusStopDistanceMatrix call() {
+                BusStopDistanceMatrix matrix = new BusStopDistanceMatrix(graph, companies);
+                Save(key, matrix);
+                return matrix;
+            }
+        });
+    }
+
+    /**
+     * The number of Loads that found the map.
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The number of Loads that did not find the map.
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    private static File FileOf(String key) {
+        return new File(DIRECTORY, "map-" + key + ".bin");
+    }
+
+    static void PutInts(ByteBuffer buf, int[] values) {
+        buf.asIntBuffer().put(values);
+        buf.position(buf.position() + 4 * values.length);
+    }
+
+    /**
+     * Read an int array. Throws if the buffer does not hold that many - a bad length is not allowed to allocate.
+     */
+    static int[] GetInts(ByteBuffer buf, int length) {
+        if ((length < 0) || (length > buf.remaining() / 4)) {
+            throw new IllegalStateException("bad length " + length);
+        }
+        int[] values = new int[length];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + 4 * length);
+        return values;
+    }
+}
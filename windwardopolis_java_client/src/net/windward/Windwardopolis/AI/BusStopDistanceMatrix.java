@@ -0,0 +1,279 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.Map;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The cost and path between every pair of bus stops, and from any tile to a bus stop. Bus stops never move so this is
+ * built once at the start of the game: a FlowField to each company's bus stop (one backwards search per company).
+ * After that the cost from anywhere to a stop is an array lookup, and a path is walked off the field with no search.
+ *
+ * The fields, and then the paths from each stop, are built in parallel on the PickupScorer pool. Start builds it all
+ * in the background so setup can send its first orders without waiting. ArtifactCache keeps built matrices (on disk
+ * too) so a map played before does not need building at all.
+ */
+public class BusStopDistanceMatrix {
+
+    private final RoadGraph graph;
+    private final HashMap<Company, Integer> indexes;
+    private final FlowField[] fields;
+    private final int[][] costs;
+    private final List<List<Point>> paths;
+
+    /**
+     * Build the matrix.
+     *
+     * @param map       The game map.
+     * @param companies All of the companies.
+     */
+    public BusStopDistanceMatrix(Map map, List<Company> companies) {
+        this(SimpleAStar.getRoadGraph(map), companies);
+    }
+
+    /**
+     * Build the matrix.
+     *
+     * @param graph     The map's road graph.
+     * @param companies All of the companies.
+     */
+    public BusStopDistanceMatrix(RoadGraph graph, List<Company> companies) {
+        this.graph = graph;
+        int numCompanies = companies.size();
+        indexes = new HashMap<Company, Integer>(numCompanies * 2);
+        fields = new FlowField[numCompanies];
+        int[] stops = new int[numCompanies];
+        for (int ind = 0; ind < numCompanies; ind++) {
+            indexes.put(companies.get(ind), ind);
+            stops[ind] = graph.NodeAt(companies.get(ind).getBusStop());
+        }
+        costs = new int[numCompanies][numCompanies];
+        paths = new ArrayList<List<Point>>(Collections.<List<Point>>nCopies(numCompanies * numCompanies, null));
+
+        // a field per stop - then, once all the fields exist, the paths from each stop.
+        PickupScorer.getPool().invoke(new BuildTask(stops, false, 0, numCompanies));
+        PickupScorer.getPool().invoke(new BuildTask(stops, true, 0, numCompanies));
+    }
+
+    /**
+     * The same matrix for a new list of the same companies (in the same order) - a re-sent setup, or one read from
+     * ArtifactCache. The fields, costs and paths are shared.
+     */
+    BusStopDistanceMatrix(BusStopDistanceMatrix matrix, List<Company> companies) {
+        this(matrix.graph, companies, matrix.fields, matrix.costs, matrix.paths);
+    }
+
+    private BusStopDistanceMatrix(RoadGraph graph, List<Company> companies, FlowField[] fields, int[][] costs, List<List<Point>> paths) {
+        this.graph = graph;
+        this.fields = fields;
+        this.costs = costs;
+        this.paths = paths;
+        indexes = new HashMap<Company, Integer>(companies.size() * 2);
+        for (int ind = 0; ind < companies.size(); ind++) {
+            indexes.put(companies.get(ind), ind);
+        }
+    }
+
+    /**
+     * The bytes Write puts (the graph is not written).
+     */
+    int ByteSize() {
+        int size = 4 + 4 * costs.length * costs.length;
+        for (FlowField field : fields) {
+            size += 4 + (field == null ? 0 : 4 + 2 * graph.getNumStates());
+        }
+        for (List<Point> path : paths) {
+            size += 4 + 8 * path.size();
+        }
+        return size;
+    }
+
+    /**
+     * Write the matrix for ArtifactCache: the fields, the costs and the paths. The graph is written separately.
+     */
+    void Write(ByteBuffer buf) {
+        buf.putInt(fields.length);
+        for (FlowField field : fields) {
+            buf.putInt(field == null ? 0 : 1);
+            if (field != null) {
+                field.Write(buf);
+            }
+        }
+        for (int[] row : costs) {
+            ArtifactCache.PutInts(buf, row);
+        }
+        for (List<Point> path : paths) {
+            buf.putInt(path.size());
+            for (Point pt : path) {
+                buf.putInt(pt.x);
+                buf.putInt(pt.y);
+            }
+        }
+    }
+
+    /**
+     * Read a matrix put by Write.
+     *
+     * @param graph     The graph it was built on.
+     * @param companies The companies, in the order the matrix was built for.
+     */
+    static BusStopDistanceMatrix Read(RoadGraph graph, List<Company> companies, ByteBuffer buf) {
+        int numCompanies = buf.getInt();
+        if (numCompanies != companies.size()) {
+            throw new IllegalStateException("matrix is for " + numCompanies + " companies, not " + companies.size());
+        }
+        FlowField[] fields = new FlowField[numCompanies];
+        for (int ind = 0; ind < numCompanies; ind++) {
+            fields[ind] = buf.getInt() == 0 ? null : FlowField.Read(graph, buf);
+        }
+        int[][] costs = new int[numCompanies][];
+        for (int ind = 0; ind < numCompanies; ind++) {
+            costs[ind] = ArtifactCache.GetInts(buf, numCompanies);
+        }
+        ArrayList<List<Point>> paths = new ArrayList<List<Point>>(numCompanies * numCompanies);
+        for (int ind = 0; ind < numCompanies * numCompanies; ind++) {
+            int[] coords = ArtifactCache.GetInts(buf, 2 * buf.getInt());
+            ArrayList<Point> path = new ArrayList<Point>(coords.length / 2);
+            for (int pt = 0; pt < coords.length; pt += 2) {
+                path.add(new Point(coords[pt], coords[pt + 1]));
+            }
+            paths.add(Collections.unmodifiableList(path));
+        }
+        return new BusStopDistanceMatrix(graph, companies, fields, costs, paths);
+    }
+
+    /**
+     * The road graph the matrix is built on.
+     */
+    public final RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Build the matrix on the PickupScorer pool.
+     *
+     * @param graph     The map's road graph.
+     * @param companies All of the companies. Must not change while the matrix is built.
+     * @return The build - join it for the matrix.
+     */
+    public static ForkJoinTask<BusStopDistanceMatrix> Start(final RoadGraph graph, final List<Company> companies) {
+        return PickupScorer.getPool().submit(new Callable<BusStopDistanceMatrix>() {
+            public BusStopDistanceMatrix call() {
+                return new BusStopDistanceMatrix(graph, companies);
+            }
+        });
+    }
+
+    private int Cost(int node, int company) {
+        if ((node < 0) || (fields[company] == null)) {
+            return FlowField.UNREACHABLE;
+        }
+        return fields[company].Cost(node);
+    }
+
+    private ArrayList<Point> Path(int node, int company) {
+        if ((node < 0) || (fields[company] == null)) {
+            return new ArrayList<Point>();
+        }
+        return fields[company].Path(node);
+    }
+
+    /**
+     * Builds the fields to (or the paths from, once the fields are built) a range of the companies' stops, a task per
+     * company.
+     */
+    private final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] stops;
+        private final boolean buildPaths;
+        private final int from;
+        private final int to;
+
+        BuildTask(int[] stops, boolean buildPaths, int from, int to) {
+            this.stops = stops;
+            this.buildPaths = buildPaths;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BuildTask(stops, buildPaths, from, mid), new BuildTask(stops, buildPaths, mid, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            if (!buildPaths) {
+                fields[from] = stops[from] < 0 ? null : new FlowField(graph, stops[from]);
+                return;
+            }
+            for (int company = 0; company < costs.length; company++) {
+                costs[from][company] = Cost(stops[from], company);
+                paths.set(from * costs.length + company, Collections.unmodifiableList(Path(stops[from], company)));
+            }
+        }
+    }
+
+    /**
+     * The number of steps from one company's bus stop to another's.
+     *
+     * @param from The company the path starts at.
+     * @param to   The company the path ends at.
+     * @return The cost. 0 if from == to and FlowField.UNREACHABLE if there is no path.
+     */
+    public final int getCost(Company from, Company to) {
+        return costs[indexes.get(from)][indexes.get(to)];
+    }
+
+    /**
+     * The cost from a tile to a company's bus stop, starting with any heading.
+     *
+     * @param from The tile units of the start point.
+     * @param to   The company the path ends at.
+     * @return The cost. 0 if from is the bus stop and FlowField.UNREACHABLE if there is no path.
+     */
+    public final int getCost(Point from, Company to) {
+        return Cost(graph.NodeAt(from), indexes.get(to));
+    }
+
+    /**
+     * The path from a tile to a company's bus stop, starting with any heading.
+     *
+     * @param from The tile units of the start point.
+     * @param to   The company the path ends at.
+     * @return A new list with the path, both ends inclusive. Empty if there is no path.
+     */
+    public final ArrayList<Point> getPath(Point from, Company to) {
+        return Path(graph.NodeAt(from), indexes.get(to));
+    }
+
+    /**
+     * The flow field to a company's bus stop. null if the bus stop is not on a road.
+     */
+    public final FlowField getField(Company to) {
+        return fields[indexes.get(to)];
+    }
+
+    /**
+     * The path from one company's bus stop to another's. This list is shared - copy it before changing it.
+     *
+     * @param from The company the path starts at.
+     * @param to   The company the path ends at.
+     * @return The path, both bus stops inclusive. Empty if there is no path.
+     */
+    public final List<Point> getPath(Company from, Company to) {
+        return paths.get(indexes.get(from) * costs.length + indexes.get(to));
+    }
+}
@@ -0,0 +1,326 @@
+package net.windward.Windwardopolis.AI;
+
+import java.util.Arrays;
+
+/**
+ * A RoadGraph reduced to the tiles where a limo has a choice. Most drivable tiles are plain road or curves with two
+ * open sides, and a limo on one of those can only carry on the way it is going. Only the other tiles - intersections,
+ * T junctions and U-turns (which includes every bus stop) - are key nodes here. Each edge is a whole corridor from a
+ * key state to the next key state, with its cost and the tiles along it. A search over this graph expands a few
+ * hundred corridors where the tile graph expands thousands of states, and the tiles are only walked for the one path
+ * asked for.
+ *
+ * The costs are exactly those of the RoadGraph, so a search here finds the same cost as A* over the tiles.
+ *
+ * Searches use a workspace in this object, so only one thread at a time may search (SimpleAStar holds its lock).
+ */
+final class CorridorGraph {
+
+    /**
+     * Returned by Search when there is no path.
+     */
+    static final int NO_PATH = -1;
+
+    private final RoadGraph graph;
+    private final boolean[] key;
+    private final int numKeyNodes;
+
+    // the corridors leaving fine state s are corridorStart[s] .. corridorStart[s+1]-1 (none unless s is a key state).
+    private final int[] corridorStart;
+    private final int[] corridorTarget;
+    private final int[] corridorCost;
+    // the tiles of corridor c (after its key node up to and including the next) are nodes[tileStart[c] ..
+    // tileStart[c+1]-1], and prefix[] holds the cost from the corridor's key node to each of those tiles.
+    private final int[] tileStart;
+    private final int[] nodes;
+    private final int[] prefix;
+    // the corridors a node is on: occurrenceStart[node] .. occurrenceStart[node+1]-1 index occurrenceCorridor (the
+    // corridor) and occurrenceIndex (the offset of the node in the corridor's tiles).
+    private final int[] occurrenceStart;
+    private final int[] occurrenceCorridor;
+    private final int[] occurrenceIndex;
+
+    // search workspace - see SimpleAStar for the generation scheme.
+    private final int[] gCost;
+    private final int[] parentState;
+    // the corridor taken into a state, and for the first hop from a start that is not a key node, the offset in
+    // that corridor the start was at (-1 if the hop started at its key node).
+    private final int[] parentCorridor;
+    private final int[] parentOffset;
+    private final int[] seen;
+    private final int[] closed;
+    // corridors that contain the end: endOffset[c] is the offset of the end in it, valid if endMark[c] == generation.
+    private final int[] endMark;
+    private final int[] endOffset;
+    private int generation;
+    private final TileHeap open;
+
+    // the best way found to the end in the last search.
+    private int bestCost;
+    private int bestState;
+    private int bestCorridor;
+    private int bestOffset;
+    private int bestStartOffset;
+
+    CorridorGraph(RoadGraph graph) {
+        this.graph = graph;
+        int numNodes = graph.getNumNodes();
+        int numStates = graph.getNumStates();
+
+        key = new boolean[numNodes];
+        int count = 0;
+        for (int node = 0; node < numNodes; node++) {
+            key[node] = Integer.bitCount(graph.OpenSides(node)) != 2;
+            if (key[node]) {
+                count++;
+            }
+        }
+        numKeyNodes = count;
+
+        // walk every corridor twice - once to size the arrays and once to fill them.
+        int numCorridors = 0;
+        int numTiles = 0;
+        for (int state = 0; state < numStates; state++) {
+            if (key[RoadGraph.NodeOfState(state)]) {
+                for (int edge = graph.FirstEdge(state); edge < graph.EndEdge(state); edge++) {
+                    int length = Walk(edge, null, null, 0);
+                    if (length > 0) {
+                        numCorridors++;
+                        numTiles += length;
+                    }
+                }
+            }
+        }
+        corridorStart = new int[numStates + 1];
+        corridorTarget = new int[numCorridors];
+        corridorCost = new int[numCorridors];
+        tileStart = new int[numCorridors + 1];
+        nodes = new int[numTiles];
+        prefix = new int[numTiles];
+        int corridor = 0;
+        int tile = 0;
+        for (int state = 0; state < numStates; state++) {
+            corridorStart[state] = corridor;
+            if (key[RoadGraph.NodeOfState(state)]) {
+                for (int edge = graph.FirstEdge(state); edge < graph.EndEdge(state); edge++) {
+                    int length = Walk(edge, nodes, prefix, tile);
+                    if (length > 0) {
+                        tileStart[corridor] = tile;
+                        corridorTarget[corridor] = walkEnd;
+                        corridorCost[corridor] = prefix[tile + length - 1];
+                        tile += length;
+                        corridor++;
+                    }
+                }
+            }
+        }
+        corridorStart[numStates] = corridor;
+        tileStart[numCorridors] = tile;
+
+        // which corridors each node is on.
+        occurrenceStart = new int[numNodes + 1];
+        for (int ind = 0; ind < numTiles; ind++) {
+            occurrenceStart[nodes[ind] + 1]++;
+        }
+        for (int node = 0; node < numNodes; node++) {
+            occurrenceStart[node + 1] += occurrenceStart[node];
+        }
+        occurrenceCorridor = new int[numTiles];
+        occurrenceIndex = new int[numTiles];
+        int[] fill = Arrays.copyOf(occurrenceStart, numNodes);
+        for (int c = 0; c < numCorridors; c++) {
+            for (int ind = tileStart[c]; ind < tileStart[c + 1]; ind++) {
+                int at = fill[nodes[ind]]++;
+                occurrenceCorridor[at] = c;
+                occurrenceIndex[at] = ind - tileStart[c];
+            }
+        }
+
+        gCost = new int[numStates];
+        parentState = new int[numStates];
+        parentCorridor = new int[numStates];
+        parentOffset = new int[numStates];
+        seen = new int[numStates];
+        closed = new int[numStates];
+        endMark = new int[numCorridors];
+        endOffset = new int[numCorridors];
+        open = new TileHeap(numStates);
+    }
+
+    // the key state the last Walk ended on.
+    private int walkEnd;
+
+    /**
+     * Follow a tile graph edge from a key state through the two sided tiles after it to the next key node.
+     *
+     * @param tiles  Set to the nodes walked through, starting at offset. null to only count them.
+     * @param costs  Set to the cost to each of those nodes.
+     * @return The number of tiles in the corridor. 0 if it does not reach a key node (a dead end or a loop).
+     */
+    private int Walk(int edge, int[] tiles, int[] costs, int offset) {
+        int cost = graph.EdgeCost(edge);
+        int state = graph.EdgeTarget(edge);
+        for (int length = 1; length <= graph.getNumNodes(); length++) {
+            int node = RoadGraph.NodeOfState(state);
+            if (tiles != null) {
+                tiles[offset + length - 1] = node;
+                costs[offset + length - 1] = cost;
+            }
+            if (key[node]) {
+                walkEnd = state;
+                return length;
+            }
+            // a two sided tile entered along the road has exactly one way on.
+            int first = graph.FirstEdge(state);
+            if (graph.EndEdge(state) - first != 1) {
+                return 0;
+            }
+            cost += graph.EdgeCost(first);
+            state = graph.EdgeTarget(first);
+        }
+        return 0;
+    }
+
+    int getNumKeyNodes() {
+        return numKeyNodes;
+    }
+
+    int getNumCorridors() {
+        return corridorTarget.length;
+    }
+
+    /**
+     * Find the cheapest path from one node to another (start with any heading). Use BuildPath for the tiles.
+     *
+     * @return The cost, NO_PATH if there is none.
+     */
+    int Search(int startNode, int endNode) {
+        if (startNode == endNode) {
+            bestCost = 0;
+            bestState = -1;
+            bestCorridor = -1;
+            return 0;
+        }
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(endMark, 0);
+            generation = 1;
+        }
+        int gen = generation;
+        int endX = graph.X(endNode);
+        int endY = graph.Y(endNode);
+        bestCost = Integer.MAX_VALUE;
+        bestState = -1;
+        bestCorridor = -1;
+        open.clear();
+
+        for (int at = occurrenceStart[endNode]; at < occurrenceStart[endNode + 1]; at++) {
+            endMark[occurrenceCorridor[at]] = gen;
+            endOffset[occurrenceCorridor[at]] = occurrenceIndex[at];
+        }
+
+        if (key[startNode]) {
+            for (int heading = 0; heading < 4; heading++) {
+                Reach(RoadGraph.State(startNode, heading), 0, -1, -1, -1, endX, endY);
+            }
+        } else {
+            // carry on along each corridor the start is on to its key node (the end may be on the way). The limo may
+            // start with any heading, so leaving a curve start is not charged the turn the corridor charges for it.
+            int sides = graph.OpenSides(startNode);
+            int straight = 1 << RoadGraph.NORTH | 1 << RoadGraph.SOUTH;
+            int free = (sides == straight) || (sides == straight << 1) ? 0 : RoadGraph.TURN_COST;
+            for (int at = occurrenceStart[startNode]; at < occurrenceStart[startNode + 1]; at++) {
+                int c = occurrenceCorridor[at];
+                int from = occurrenceIndex[at];
+                int done = prefix[tileStart[c] + from] + free;
+                if ((endMark[c] == gen) && (endOffset[c] > from)) {
+                    Goal(prefix[tileStart[c] + endOffset[c]] - done, -1, c, endOffset[c], from);
+                }
+                Reach(corridorTarget[c], corridorCost[c] - done, -1, c, from, endX, endY);
+            }
+        }
+
+        while (!open.isEmpty()) {
+            int state = open.pop();
+            if (closed[state] == gen) {
+                continue;
+            }
+            int base = gCost[state];
+            if (base + Heuristic(state, endX, endY) >= bestCost) {
+                break;
+            }
+            closed[state] = gen;
+            for (int c = corridorStart[state], end = corridorStart[state + 1]; c < end; c++) {
+                if (endMark[c] == gen) {
+                    Goal(base + prefix[tileStart[c] + endOffset[c]], state, c, endOffset[c], -1);
+                }
+                Reach(corridorTarget[c], base + corridorCost[c], state, c, -1, endX, endY);
+            }
+        }
+        return bestCost == Integer.MAX_VALUE ? NO_PATH : bestCost;
+    }
+
+    private void Reach(int state, int cost, int fromState, int corridor, int offset, int endX, int endY) {
+        int gen = generation;
+        if ((closed[state] == gen) || ((seen[state] == gen) && (gCost[state] <= cost))) {
+            return;
+        }
+        seen[state] = gen;
+        gCost[state] = cost;
+        parentState[state] = fromState;
+        parentCorridor[state] = corridor;
+        parentOffset[state] = offset;
+        open.push(cost + Heuristic(state, endX, endY), state);
+    }
+
+    private void Goal(int cost, int fromState, int corridor, int offset, int startOffset) {
+        if (cost < bestCost) {
+            bestCost = cost;
+            bestState = fromState;
+            bestCorridor = corridor;
+            bestOffset = offset;
+            bestStartOffset = startOffset;
+        }
+    }
+
+    private int Heuristic(int state, int endX, int endY) {
+        int node = RoadGraph.NodeOfState(state);
+        return RoadGraph.STEP_COST * (Math.abs(graph.X(node) - endX) + Math.abs(graph.Y(node) - endY));
+    }
+
+    /**
+     * The nodes of the path found by the last successful Search, start and end inclusive.
+     */
+    int[] BuildPath(int startNode) {
+        if (bestCorridor < 0) {
+            return new int[]{startNode};
+        }
+
+        // count, then fill from the end backwards.
+        int length = 1 + bestOffset - (bestState < 0 ? bestStartOffset : -1);
+        for (int state = bestState; (state >= 0) && (parentCorridor[state] >= 0); state = parentState[state]) {
+            int c = parentCorridor[state];
+            length += (tileStart[c + 1] - tileStart[c]) - (parentState[state] < 0 ? parentOffset[state] + 1 : 0);
+        }
+
+        int[] path = new int[length];
+        int pos = length;
+        pos = CopyTiles(path, pos, bestCorridor, bestState < 0 ? bestStartOffset + 1 : 0, bestOffset);
+        for (int state = bestState; (state >= 0) && (parentCorridor[state] >= 0); state = parentState[state]) {
+            int c = parentCorridor[state];
+            int from = parentState[state] < 0 ? parentOffset[state] + 1 : 0;
+            pos = CopyTiles(path, pos, c, from, tileStart[c + 1] - tileStart[c] - 1);
+        }
+        path[--pos] = startNode;
+        return path;
+    }
+
+    // copy tiles from .. to (inclusive) of a corridor so they end just before pos. Returns the new pos.
+    private int CopyTiles(int[] path, int pos, int corridor, int from, int to) {
+        int count = to - from + 1;
+        pos -= count;
+        System.arraycopy(nodes, tileStart[corridor] + from, path, pos, count);
+        return pos;
+    }
+}
@@ -0,0 +1,163 @@
+package net.windward.Windwardopolis.AI;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The cost from every state of a RoadGraph to one destination tile. It is filled by a single Dijkstra search run
+ * backwards out from the destination, and after that the cost from anywhere is an array lookup and the path from
+ * anywhere is found by stepping to whichever next state is cheapest from there - no search at all.
+ *
+ * Bus stops never move, so MyPlayerBrain keeps one of these per company (see BusStopDistanceMatrix). A field is one
+ * short per state, and there are 4 states (headings) per road tile, so 8 bytes per road tile - 1KB to 8KB on the
+ * server maps (143 to 1032 road tiles).
+ */
+public final class FlowField {
+
+    /**
+     * The cost of a state that can't reach the destination.
+     */
+    public static final short UNREACHABLE = Short.MAX_VALUE;
+
+    private final RoadGraph graph;
+    private final int destination;
+    // cost from each state to the destination (any heading there).
+    private final short[] cost;
+
+    /**
+     * Build the field.
+     *
+     * @param graph       The map's road graph.
+     * @param destination The destination node.
+     */
+    public FlowField(RoadGraph graph, int destination) {
+        this.graph = graph;
+        this.destination = destination;
+        int numStates = graph.getNumStates();
+        cost = new short[numStates];
+        Arrays.fill(cost, UNREACHABLE);
+
+        boolean[] closed = new boolean[numStates];
+        TileHeap open = new TileHeap(numStates);
+        for (int heading = 0; heading < 4; heading++) {
+            int state = RoadGraph.State(destination, heading);
+            cost[state] = 0;
+            open.push(0, state);
+        }
+        while (!open.isEmpty()) {
+            int state = open.pop();
+            if (closed[state]) {
+                continue;
+            }
+            closed[state] = true;
+            int base = cost[state];
+            for (int in = graph.FirstInEdge(state), end = graph.EndInEdge(state); in < end; in++) {
+                int from = graph.InEdgeSource(in);
+                int next = base + graph.InEdgeCost(in);
+                if (!closed[from] && (next < cost[from]) && (next < UNREACHABLE)) {
+                    cost[from] = (short) next;
+                    open.push(next, from);
+                }
+            }
+        }
+    }
+
+    // a field read back from an ArtifactCache file.
+    private FlowField(RoadGraph graph, int destination, short[] cost) {
+        this.graph = graph;
+        this.destination = destination;
+        this.cost = cost;
+    }
+
+    /**
+     * Write the field for ArtifactCache - the destination and then the cost of each state. Read gets it back.
+     */
+    void Write(ByteBuffer buf) {
+        buf.putInt(destination);
+        buf.asShortBuffer().put(cost);
+        buf.position(buf.position() + 2 * cost.length);
+    }
+
+    /**
+     * Read a field put by Write.
+     */
+    static FlowField Read(RoadGraph graph, ByteBuffer buf) {
+        int destination = buf.getInt();
+        short[] cost = new short[graph.getNumStates()];
+        buf.asShortBuffer().get(cost);
+        buf.position(buf.position() + 2 * cost.length);
+        return new FlowField(graph, destination, cost);
+    }
+
+    /**
+     * The node this field leads to.
+     */
+    public int getDestination() {
+        return destination;
+    }
+
+    /**
+     * The cost from a state to the destination. UNREACHABLE if there is no path.
+     */
+    public int StateCost(int state) {
+        return cost[state];
+    }
+
+    /**
+     * The cost from a node (starting with any heading) to the destination. UNREACHABLE if there is no path.
+     */
+    public int Cost(int node) {
+        int state = BestState(node);
+        return cost[state];
+    }
+
+    /**
+     * The next state on a cheapest path from a state. -1 if the state is the destination or can't reach it.
+     */
+    public int NextState(int state) {
+        int here = cost[state];
+        if ((here == 0) || (here == UNREACHABLE)) {
+            return -1;
+        }
+        for (int edge = graph.FirstEdge(state), end = graph.EndEdge(state); edge < end; edge++) {
+            int next = graph.EdgeTarget(edge);
+            if (cost[next] + graph.EdgeCost(edge) == here) {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The cheapest path from a node (starting with any heading) to the destination.
+     *
+     * @return The path, both ends inclusive. Empty if there is no path.
+     */
+    public ArrayList<Point> Path(int node) {
+        ArrayList<Point> path = new ArrayList<Point>();
+        int state = BestState(node);
+        if (cost[state] == UNREACHABLE) {
+            return path;
+        }
+        path.add(new Point(graph.X(node), graph.Y(node)));
+        while ((state = NextState(state)) >= 0) {
+            int next = RoadGraph.NodeOfState(state);
+            path.add(new Point(graph.X(next), graph.Y(next)));
+        }
+        return path;
+    }
+
+    // the cheapest heading to be at a node with.
+    private int BestState(int node) {
+        int best = RoadGraph.State(node, 0);
+        for (int heading = 1; heading < 4; heading++) {
+            int state = RoadGraph.State(node, heading);
+            if (cost[state] < cost[best]) {
+                best = state;
+            }
+        }
+        return best;
+    }
+}
@@ -4,7 +4,9 @@ package net.windward.Windwardopolis.AI;
 // Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
 
 
+import net.windward.Windwardopolis.ClientMetrics;
 import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameStateSnapshot;
 import net.windward.Windwardopolis.api.Map;
 import net.windward.Windwardopolis.api.Passenger;
 import net.windward.Windwardopolis.api.Player;
@@ -19,8 +21,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The sample C# AI. Start with this project but write your own code as this is a very simplistic implementation of the AI.
@@ -110,9 +113,74 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
         privateMe = value;
     }
 
-    private PlayerAIBase.PlayerOrdersEvent sendOrders;
+    /**
+     * The cost/path between every pair of bus stops and from any tile to a bus stop. Setup starts building it in the
+     * background - null until the first status message.
+     */
+    private BusStopDistanceMatrix privateStopDistances;
+
+    public final BusStopDistanceMatrix getStopDistances() {
+        return privateStopDistances;
+    }
+
+    private void setStopDistances(BusStopDistanceMatrix value) {
+        privateStopDistances = value;
+    }
+
+    /**
+     * The players and passengers as of the last status message (or setup). The update stage takes one per message,
+     * and the scoring and planning read it rather than the Player and Passenger objects - those are changed in place
+     * as the next message is read.
+     */
+    private volatile GameStateSnapshot privateSnapshot;
+
+    public final GameStateSnapshot getSnapshot() {
+        return privateSnapshot;
+    }
+
+    private void setSnapshot(GameStateSnapshot value) {
+        privateSnapshot = value;
+    }
+
+    /**
+     * The time allowed for a turn, from when we are called until the orders are sent. Set with
+     * -Dwindward.turnBudgetMs=N. The server complains about turns over 800ms.
+     */
+    private static final long TURN_BUDGET_MS = Long.getLong("windward.turnBudgetMs", 500);
+
+    public final long getTurnBudgetMillis() {
+        return TURN_BUDGET_MS;
+    }
+
+    /**
+     * What the planner did on the most recent turn that sent orders. null before the first orders.
+     */
+    private volatile PlanMetrics privateLastTurnMetrics;
+
+    public final PlanMetrics getLastTurnMetrics() {
+        return privateLastTurnMetrics;
+    }
+
+    // scores the passengers we could pick up, in parallel.
+    private PickupScorer scorer;
+    // the candidates ranked by score, re-scored as they change.
+    private PassengerPriorityIndex priorities;
+    // refines the greedy pickup order until the turn deadline.
+    private AnytimePlanner planner;
+    // when the other limos can get to each bus stop. Updated on every status message.
+    private RivalPredictor rivals;
+    // the passenger we are driving to pick up (null if we have a passenger), and if rivals were already expected to
+    // get to them first when we chose them.
+    private Passenger pickupTarget;
+    private boolean pickupTargetContested;
+    // the stop distances being built, and true if the orders sent were made without them (or without the look-ahead).
+    private ForkJoinTask<BusStopDistanceMatrix> stopDistancesBuild;
+    private boolean provisionalOrders;
+    // the turn in progress.
+    private long turnStart;
+    private PlanMetrics turnMetrics;
 
-    private static final java.util.Random rand = new java.util.Random();
+    private PlayerAIBase.PlayerOrdersEvent sendOrders;
 
     public MyPlayerBrain(String name) {
         setName(!net.windward.Windwardopolis.DotNetToJavaStringHelper.isNullOrEmpty(name) ? name : NAME);
@@ -150,6 +218,7 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
      */
     public final void Setup(Map map, Player me, java.util.ArrayList<Player> players, java.util.ArrayList<Company> companies, java.util.ArrayList<Passenger> passengers, PlayerAIBase.PlayerOrdersEvent ordersEvent) {
 
+        StartTurn();
         try {
             setGameMap(map);
             setPlayers(players);
@@ -158,10 +227,38 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
             setPassengers(passengers);
             sendOrders = ordersEvent;
 
-            java.util.ArrayList<Passenger> pickup = AllPickups(me, passengers);
+            // a map played before has its graph and stop distances cached - plan with them now. Otherwise the bus
+            // stop flow fields take a while - build them in the background (and cache them) and get going with
+            // orders from one search. The first status message plans with the stop distances.
+            long updateStart = System.nanoTime();
+            setSnapshot(GameStateSnapshot.Take(null, players, passengers, companies.size()));
+            String mapKey = ArtifactCache.Key(map, companies);
+            BusStopDistanceMatrix cached = ArtifactCache.Load(mapKey, companies);
+            java.util.ArrayList<Point> path;
+            java.util.ArrayList<Passenger> pickup;
+            if (cached != null) {
+                SimpleAStar.UseRoadGraph(map, cached.getGraph());
+                BindStopDistances(cached);
+                rivals.Update(getSnapshot(), me);
+                ClientMetrics.get().getUpdate().RecordSince(updateStart);
+
+                // the look-ahead is slow before the JIT has seen it - it waits for the first status message.
+                pickup = AllPickups(me, false);
+                SetPickupTarget(me, pickup.get(0));
+                path = CalculatePathPlus1(me, pickup.get(0).getLobby());
+            } else {
+                setStopDistances(null);
+                stopDistancesBuild = ArtifactCache.Build(mapKey, SimpleAStar.getRoadGraph(map), companies);
+                ClientMetrics.get().getUpdate().RecordSince(updateStart);
+
+                path = new java.util.ArrayList<Point>();
+                pickup = ProvisionalPickups(me, passengers, path);
+                pickupTarget = pickup.get(0);
+                pickupTargetContested = false;
+            }
+            provisionalOrders = true;
 
-            // get the path from where we are to the dest.
-            java.util.ArrayList<Point> path = CalculatePathPlus1(me, pickup.get(0).getLobby().getBusStop());
+            EndTurn();
             sendOrders.invoke("ready", path, pickup);
         } catch (RuntimeException ex) {
             ex.printStackTrace();
@@ -180,33 +277,43 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
 
         // bugbug - Framework.cs updates the object's in this object's Players, Passengers, and Companies lists. This works fine as long
         // as this app is single threaded. However, if you create worker thread(s) or respond to multiple status messages simultaneously
-        // then you need to split these out and synchronize access to the saved list objects.
+        // then you need to split these out and synchronize access to the saved list objects. The scoring and planning
+        // read getSnapshot(), which is taken once per message and never changes.
 
+        StartTurn();
         try {
+            long updateStart = System.nanoTime();
+            if (getStopDistances() == null) {
+                // usually long done - the build had until this message to finish.
+                BindStopDistances(JoinStopDistances());
+            }
+            setSnapshot(GameStateSnapshot.Take(getSnapshot(), players, passengers, getCompanies().size()));
+            rivals.Update(getSnapshot(), getMe());
+            ClientMetrics.get().getUpdate().RecordSince(updateStart);
+
             // bugbug - we return if not us because the below code is only for when we need a new path or our limo hit a bus stop.
             // if you want to act on other players arriving at bus stops, you need to remove this. But make sure you use Me, not
             // plyrStatus for the Player you are updatiing (particularly to determine what tile to start your path from).
-            Point ptDest = null;
+            Company dest = null;
             java.util.ArrayList<Passenger> pickup = new java.util.ArrayList<Passenger>();
 
-            if (plyrStatus != getMe()) {
-                switch (status) {
-                    case PASSENGER_PICKED_UP:
-                        if (plyrStatus.getLimo().getPassenger() == null){
-                            pickup = AllPickups(getMe(), passengers);
-                            ptDest = pickup.get(0).getLobby().getBusStop();
-                        }
-                        break;
-                    case PASSENGER_DELIVERED:
-                    case PASSENGER_ABANDONED:
-                        if (plyrStatus.getLimo().getPassenger() == null) {
-                            pickup = AllPickups(getMe(), passengers);
-                            ptDest = pickup.get(0).getLobby().getBusStop();
-                        }
-                        break;
-                    default:
-                        return;
+            // re-plan our pickup if our orders were made without the stop distances or the look-ahead (unless this
+            // status is for us and re-plans anyway).
+            boolean replan = provisionalOrders && (getMe().getLimo().getPassenger() == null)
+                    && ((plyrStatus != getMe()) || (status == PlayerAIBase.STATUS.UPDATE));
+            provisionalOrders = false;
+
+            if (replan || ((plyrStatus != getMe()) && PickupTargetLost())) {
+                // a rival took, or will now probably get to first, the passenger we are going for - go for another.
+                pickup = AllPickups(getMe());
+                if (pickup.isEmpty()) {
+                    return;
                 }
+                dest = pickup.get(0).getLobby();
+                plyrStatus = getMe();
+            } else if (plyrStatus != getMe()) {
+                // a rival's status - the orders we sent still stand. PickupTargetLost (above) is what changes them
+                // when a rival takes, or will now beat us to, the passenger we are going for.
                 return;
             } else {
                 switch (status) {
@@ -215,38 +322,40 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
                     case NO_PATH:
                     case PASSENGER_NO_ACTION:
                         if (plyrStatus.getLimo().getPassenger() == null) {
-                            pickup = AllPickups(plyrStatus, passengers);
-                            ptDest = pickup.get(0).getLobby().getBusStop();
+                            pickup = AllPickups(plyrStatus);
+                            dest = pickup.get(0).getLobby();
                         } else {
-                            ptDest = plyrStatus.getLimo().getPassenger().getDestination().getBusStop();
+                            dest = plyrStatus.getLimo().getPassenger().getDestination();
                         }
                         break;
                     case PASSENGER_DELIVERED:
                     case PASSENGER_ABANDONED:
-                        pickup = AllPickups(plyrStatus, passengers);
-                        ptDest = pickup.get(0).getLobby().getBusStop();
+                        pickup = AllPickups(plyrStatus);
+                        dest = pickup.get(0).getLobby();
                         break;
                     case PASSENGER_REFUSED:
                         //add in random so no refuse loop
                         for (Company cpy : getCompanies()) {
                             if (cpy != plyrStatus.getLimo().getPassenger().getDestination()) {
-                                ptDest = cpy.getBusStop();
+                                dest = cpy;
                                 break;
                             }
                         }
                         break;
                     case PASSENGER_DELIVERED_AND_PICKED_UP:
                     case PASSENGER_PICKED_UP:
-                        pickup = AllPickups(plyrStatus, passengers);
-                        ptDest = plyrStatus.getLimo().getPassenger().getDestination().getBusStop();
+                        pickup = AllPickups(plyrStatus);
+                        dest = plyrStatus.getLimo().getPassenger().getDestination();
                         break;
                     default:
                         throw new RuntimeException("unknown status");
                 }
             }
 
+            SetPickupTarget(plyrStatus, (plyrStatus.getLimo().getPassenger() == null) && (pickup.size() > 0) && (dest == pickup.get(0).getLobby()) ? pickup.get(0) : null);
+
             // get the path from where we are to the dest.
-            java.util.ArrayList<Point> path = CalculatePathPlus1(plyrStatus, ptDest);
+            java.util.ArrayList<Point> path = CalculatePathPlus1(plyrStatus, dest);
 
             // update our saved Player to match new settings
             if (path.size() > 0) {
@@ -258,98 +367,191 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
                 getMe().getPickUp().addAll(pickup);
             }
 
+            EndTurn();
             sendOrders.invoke("move", path, pickup);
         } catch (RuntimeException ex) {
             ex.printStackTrace();
         }
     }
 
-    private java.util.ArrayList<Point> CalculatePathPlus1(Player me, Point ptDest) {
-        java.util.ArrayList<Point> path = SimpleAStar.CalculatePath(getGameMap(), me.getLimo().getMapPosition(), ptDest);
+    private void StartTurn() {
+        turnStart = System.nanoTime();
+        turnMetrics = new PlanMetrics();
+        turnMetrics.setBudgetMillis(TURN_BUDGET_MS);
+    }
+
+    private void EndTurn() {
+        turnMetrics.setElapsedNanos(System.nanoTime() - turnStart);
+        privateLastTurnMetrics = turnMetrics;
+    }
+
+    /**
+     * true if a rival has picked up the passenger we are driving to, or now looks like it will get to them first. Only
+     * true when that changes - not if rivals were already expected to get there first when we chose the passenger.
+     */
+    private boolean PickupTargetLost() {
+        if ((pickupTarget == null) || (getMe().getLimo().getPassenger() != null)) {
+            return false;
+        }
+        if (pickupTarget.getCar() != null) {
+            return true;
+        }
+        return (!pickupTargetContested) && rivals.IsLikelyLost(getSnapshot(), pickupTarget, getStopDistances().getCost(getMe().getLimo().getMapPosition(), pickupTarget.getLobby()));
+    }
+
+    private void SetPickupTarget(Player me, Passenger psngr) {
+        pickupTarget = psngr;
+        pickupTargetContested = (psngr != null) && rivals.IsLikelyLost(getSnapshot(), psngr, getStopDistances().getCost(me.getLimo().getMapPosition(), psngr.getLobby()));
+    }
+
+    private java.util.ArrayList<Point> CalculatePathPlus1(Player me, Company dest) {
+        long pathStart = System.nanoTime();
+        java.util.ArrayList<Point> path = getStopDistances().getPath(me.getLimo().getMapPosition(), dest);
         // add in leaving the bus stop so it has orders while we get the message saying it got there and are deciding what to do next.
         if (path.size() > 1) {
             path.add(path.get(path.size() - 2));
         }
+        ClientMetrics.get().getPath().RecordSince(pathStart);
         return path;
     }
 
-    private java.util.ArrayList<Passenger> AllPickups(Player me, Iterable<Passenger> passengers) {
-        java.util.ArrayList<Passenger> pickUpOrder = new java.util.ArrayList<Passenger>();
+    /**
+     * The stop distances built in the background. If that build failed, they are built here instead (and not cached),
+     * so a failed build costs one slow turn and not the rest of the game.
+     */
+    private BusStopDistanceMatrix JoinStopDistances() {
+        ForkJoinTask<BusStopDistanceMatrix> build = stopDistancesBuild;
+        stopDistancesBuild = null;
+        if (build != null) {
+            try {
+                return build.join();
+            } catch (RuntimeException ex) {
+                System.out.println("Building the stop distances in the background failed, building them now: " + ex);
+                ex.printStackTrace();
+            }
+        }
+        return new BusStopDistanceMatrix(SimpleAStar.getRoadGraph(getGameMap()), getCompanies());
+    }
 
+    /**
+     * Use the stop distances built in the background, and make what needs them.
+     */
+    private void BindStopDistances(BusStopDistanceMatrix stopDistances) {
+        setStopDistances(stopDistances);
+        rivals = new RivalPredictor(stopDistances.getGraph(), stopDistances, getCompanies());
+        scorer = new PickupScorer(stopDistances, rivals);
+        priorities = new PassengerPriorityIndex(scorer);
+        planner = new AnytimePlanner(stopDistances);
+    }
+
+    // the passengers we could pick up.
+    private static Passenger[] Candidates(Player me, Iterable<Passenger> passengers) {
+        java.util.ArrayList<Passenger> candidates = new java.util.ArrayList<Passenger>();
         for (Passenger psngr : passengers) {
             if ((!me.getPassengersDelivered().contains(psngr)) && (psngr != me.getLimo().getPassenger()) && (psngr.getCar() == null) && (psngr.getLobby() != null) && (psngr.getDestination() != null)) {
-                pickUpOrder.add(psngr);
+                candidates.add(psngr);
             }
         }
+        return candidates.toArray(new Passenger[candidates.size()]);
+    }
 
-        Collections.sort(pickUpOrder, new PassengerComparator(me));
-
-        //add sort by random so no loops for can't pickup
+    /**
+     * The pickup order for orders made before the stop distances are built. It is scored as PickupScorer does, but
+     * with the trip to each lobby from one search out from our limo and the delivery as the straight line distance.
+     *
+     * @param path Set to the path to the first passenger's lobby.
+     */
+    private java.util.ArrayList<Passenger> ProvisionalPickups(Player me, Iterable<Passenger> passengers, java.util.ArrayList<Point> path) {
+        long greedyStart = System.nanoTime();
+        Passenger[] candidates = Candidates(me, passengers);
+        java.util.ArrayList<Point> lobbies = new java.util.ArrayList<Point>(candidates.length);
+        for (Passenger psngr : candidates) {
+            lobbies.add(psngr.getLobby().getBusStop());
+        }
+        int[] costs = new int[candidates.length];
+        java.util.ArrayList<ArrayList<Point>> paths = SimpleAStar.CalculatePaths(getGameMap(), me.getLimo().getMapPosition(), lobbies, costs);
+
+        double[] scores = new double[candidates.length];
+        Integer[] order = new Integer[candidates.length];
+        for (int ind = 0; ind < candidates.length; ind++) {
+            Point lobby = candidates[ind].getLobby().getBusStop();
+            Point dest = candidates[ind].getDestination().getBusStop();
+            double cost = costs[ind] * 0.7 + (Math.abs(lobby.x - dest.x) + Math.abs(lobby.y - dest.y)) * 0.3 + PickupScorer.ENEMY_PENALTY * PickupScorer.EnemiesWaiting(getSnapshot(), candidates[ind]);
+            scores[ind] = candidates[ind].getPointsDelivered() / cost;
+            order[ind] = ind;
+        }
+        Arrays.sort(order, new PassengerComparator(candidates, scores));
+        java.util.ArrayList<Passenger> pickUpOrder = new java.util.ArrayList<Passenger>(candidates.length);
+        for (Integer ind : order) {
+            pickUpOrder.add(candidates[ind]);
+        }
+        turnMetrics.setGreedyNanos(System.nanoTime() - greedyStart);
+        ClientMetrics.get().getPlan().RecordSince(greedyStart);
+
+        if (order.length > 0) {
+            path.addAll(paths.get(order[0]));
+            // as CalculatePathPlus1.
+            if (path.size() > 1) {
+                path.add(path.get(path.size() - 2));
+            }
+        }
         return pickUpOrder;
     }
 
-    private class PassengerComparator implements Comparator<Passenger> {
-        Player me;
+    private java.util.ArrayList<Passenger> AllPickups(Player me) {
+        return AllPickups(me, true);
+    }
 
-        PassengerComparator(Player me) {
-            this.me = me;
+    /**
+     * The passengers to pick up, best first.
+     *
+     * @param lookAhead true to improve the ranking with the planner, false for just the ranking.
+     */
+    private java.util.ArrayList<Passenger> AllPickups(Player me, boolean lookAhead) {
+        // re-score what this status changed, then take them all by rank.
+        long greedyStart = System.nanoTime();
+        GameStateSnapshot game = getSnapshot();
+        priorities.Update(game, me);
+        int[] pickupCosts = new int[priorities.getSize()];
+        java.util.ArrayList<Passenger> pickUpOrder = priorities.Top(pickupCosts.length, pickupCosts);
+        turnMetrics.setGreedyNanos(System.nanoTime() - greedyStart);
+        if (!lookAhead) {
+            ClientMetrics.get().getPlan().RecordSince(greedyStart);
+            return pickUpOrder;
         }
 
-        public int compare(Passenger p1, Passenger p2) {
-            try {
-                double p1Cost;
-                SimpleAStar.CalculatePath(MyPlayerBrain.this.getGameMap(), me.getLimo().getMapPosition(), p1.getLobby().getBusStop());
-                p1Cost = SimpleAStar.last_cost * 0.7;
-                SimpleAStar.CalculatePath(MyPlayerBrain.this.getGameMap(), p1.getLobby().getBusStop().getLocation(), p1.getDestination().getBusStop());
-                p1Cost += (SimpleAStar.last_cost * 0.3);
-
-                for (Passenger p : p1.getDestination().getPassengers())
-                {
-                    if (p1.getEnemies().contains(p))
-                    {
-                        p1Cost += 1000;
-                    }
-                }
+        // we have a usable order - now improve on it with what's left of the turn (keeping 10% back to calculate the
+        // path and send the orders).
+        long deadline = turnStart + TURN_BUDGET_MS * 900000L;
+        pickUpOrder = planner.Plan(game, pickUpOrder, pickupCosts, deadline, turnMetrics);
+        ClientMetrics.get().getPlan().RecordSince(greedyStart);
+        return pickUpOrder;
+    }
 
-                double p2Cost;
-                SimpleAStar.CalculatePath(MyPlayerBrain.this.getGameMap(), me.getLimo().getMapPosition(), p2.getLobby().getBusStop());
-                p2Cost = SimpleAStar.last_cost * 0.7;
-                SimpleAStar.CalculatePath(MyPlayerBrain.this.getGameMap(), p2.getLobby().getBusStop().getLocation(), p2.getDestination().getBusStop());
-                p2Cost += (SimpleAStar.last_cost * 0.3);
+    /**
+     * Orders candidates (by their index) best first: highest score, then the most passengers waiting at the
+     * destination, then the lowest passenger id - as PassengerPriorityIndex ranks them.
+     */
+    private class PassengerComparator implements Comparator<Integer> {
+        private final Passenger[] candidates;
+        private final double[] scores;
 
-                for (Passenger p : p2.getDestination().getPassengers())
-                {
-                    if (p2.getEnemies().contains(p))
-                    {
-                        p2Cost += 1000;
-                    }
-                }
+        PassengerComparator(Passenger[] candidates, double[] scores) {
+            this.candidates = candidates;
+            this.scores = scores;
+        }
 
-                if (p1.getPointsDelivered() / p1Cost > p2.getPointsDelivered() / p2Cost) {
-                    return -1;
-                }
-                else if (p1.getPointsDelivered() / p1Cost < p2.getPointsDelivered() / p2Cost) {
-                    return 1;
-                }
-                else {
-                    int p1DestPassSize = p1.getDestination().getPassengers().size();
-                    int p2DestPassSize = p2.getDestination().getPassengers().size();
-
-                    if (p1DestPassSize > p2DestPassSize) {
-                        return -1;
-                    }
-                    else if (p1DestPassSize < p2DestPassSize) {
-                        return 1;
-                    }
-                    else
-                    {
-                        int randomNum = rand.nextInt(2);
-                        return (randomNum == 0) ? -1 : 1;
-                    }
-                }
-            } catch (RuntimeException ex) {
-                int p1DestPassSize = p1.getDestination().getPassengers().size();
-                int p2DestPassSize = p2.getDestination().getPassengers().size();
+        public int compare(Integer i1, Integer i2) {
+            if (scores[i1] > scores[i2]) {
+                return -1;
+            }
+            else if (scores[i1] < scores[i2]) {
+                return 1;
+            }
+            else {
+                GameStateSnapshot game = getSnapshot();
+                int p1DestPassSize = game.getWaiting(candidates[i1].getDestination()).size();
+                int p2DestPassSize = game.getWaiting(candidates[i2].getDestination()).size();
 
                 if (p1DestPassSize > p2DestPassSize) {
                     return -1;
@@ -359,10 +561,9 @@ public class MyPlayerBrain implements net.windward.Windwardopolis.AI.IPlayerAI {
                 }
                 else
                 {
-                    int randomNum = rand.nextInt(2);
-                    return (randomNum == 0) ? -1 : 1;
+                    return candidates[i1].getId() - candidates[i2].getId();
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
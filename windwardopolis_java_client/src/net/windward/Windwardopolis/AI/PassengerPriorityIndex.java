@@ -0,0 +1,325 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameStateSnapshot;
+import net.windward.Windwardopolis.api.Passenger;
+import net.windward.Windwardopolis.api.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The passengers we could pick up, ranked by their PickupScorer score and kept from one status message to the next,
+ * so a status re-scores what changed instead of building and sorting the candidates again.
+ *
+ * Everything is by passenger id. A passenger's DeliveryTerm is kept and only worked out again when its state in the
+ * GameStateSnapshot changed (snapshots share unchanged states, so that is a reference compare) or who is waiting at
+ * its destination did. The pickup cost is the same for everyone waiting in a lobby, so it is worked out once per
+ * lobby per Update, and only the candidates in a lobby whose pickup cost changed (or that changed themselves) are
+ * scored again, on the PickupScorer pool.
+ *
+ * The candidates are in a binary heap, best at the top, with where each id is in it so a re-scored candidate is moved
+ * up or down in O(log n). Top(k) walks the heap with a second small heap of the positions that could be next, so it
+ * is O(k log k) and leaves the heap as it was. Ties are broken the same way every time: the most passengers waiting
+ * at the destination, then the lowest id.
+ *
+ * Update is called on the thread that reads the status messages - it reads who we have delivered from our Player.
+ */
+public class PassengerPriorityIndex {
+
+    private final PickupScorer scorer;
+
+    // by passenger id: the state and destination waiting list the candidate was last looked at with (null if never
+    // looked at or not a candidate), if it is a candidate, and its score and the parts of it.
+    private GameStateSnapshot.PassengerState[] seen;
+    private List<List<Passenger>> seenWaiting;
+    private boolean[] candidate;
+    private double[] deliveryTerms;
+    private int[] pickupCosts;
+    private double[] scores;
+    private int[] waitingAtDestination;
+
+    // by company id: the pickup cost of the lobby, the Update it was worked out on and if it changed then.
+    private int[] lobbyCost;
+    private long[] lobbyUpdate;
+    private boolean[] lobbyChanged;
+
+    // the candidates to score and what they are scored with - kept to not allocate them each Update.
+    private int[] stale;
+    private Passenger[] batch;
+    private double[] batchTerms;
+    private int[] batchCosts;
+    private double[] batchScores;
+
+    // the candidates' ids, a max heap on Better. heapIndex[id] is where id is in heap, -1 if not there.
+    private int[] heap;
+    private int[] heapIndex;
+    private int size;
+
+    // what the pickup costs were worked out with.
+    private GameStateSnapshot game;
+    private GameStateSnapshot.PlayerState seenMe;
+    private long numUpdates;
+    private int numRescored;
+
+    public PassengerPriorityIndex(PickupScorer scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * Bring the ranking up to a snapshot, re-scoring what changed since the last.
+     *
+     * @param game The game now.
+     * @param me   The player picking up.
+     */
+    public final void Update(GameStateSnapshot game, Player me) {
+        numUpdates++;
+        int numPassengers = game.getNumPassengers();
+        if ((seen == null) || (seen.length != numPassengers)) {
+            seen = new GameStateSnapshot.PassengerState[numPassengers];
+            seenWaiting = new ArrayList<List<Passenger>>(Collections.<List<Passenger>>nCopies(numPassengers, null));
+            candidate = new boolean[numPassengers];
+            deliveryTerms = new double[numPassengers];
+            pickupCosts = new int[numPassengers];
+            scores = new double[numPassengers];
+            waitingAtDestination = new int[numPassengers];
+            heap = new int[numPassengers];
+            heapIndex = new int[numPassengers];
+            Arrays.fill(heapIndex, -1);
+            size = 0;
+            seenMe = null;
+            stale = new int[numPassengers];
+            batch = new Passenger[numPassengers];
+            batchTerms = new double[numPassengers];
+            batchCosts = new int[numPassengers];
+            batchScores = new double[numPassengers];
+        }
+        int numCompanies = game.getNumCompanies();
+        if ((lobbyUpdate == null) || (lobbyUpdate.length != numCompanies)) {
+            lobbyCost = new int[numCompanies];
+            lobbyUpdate = new long[numCompanies];
+            lobbyChanged = new boolean[numCompanies];
+        }
+
+        GameStateSnapshot.PlayerState meState = game.getPlayer(me);
+        // who we carry and who we have delivered are not candidates - if those change, look at who is again.
+        boolean meChanged = (seenMe == null) || (meState.getPassenger() != seenMe.getPassenger())
+                || (meState.getNumDelivered() != seenMe.getNumDelivered());
+
+        int numStale = 0;
+        for (int id = 0; id < numPassengers; id++) {
+            GameStateSnapshot.PassengerState state = game.getPassenger(id);
+            boolean changed = (state != seen[id])
+                    || (candidate[id] && !game.getWaiting(state.getDestination()).equals(seenWaiting.get(id)));
+            if (changed || meChanged) {
+                boolean wasCandidate = candidate[id] && !changed;
+                seen[id] = state;
+                candidate[id] = (state.getPassenger() != meState.getPassenger()) && (state.getCar() < 0)
+                        && (state.getLobby() != null) && (state.getDestination() != null)
+                        && !me.getPassengersDelivered().contains(state.getPassenger());
+                // a candidate that was one already and did not change keeps its score.
+                changed = !wasCandidate;
+                if (!candidate[id]) {
+                    seenWaiting.set(id, null);
+                    Remove(id);
+                } else if (changed) {
+                    seenWaiting.set(id, game.getWaiting(state.getDestination()));
+                    waitingAtDestination[id] = seenWaiting.get(id).size();
+                    deliveryTerms[id] = scorer.DeliveryTerm(game, state.getPassenger());
+                }
+            }
+            // every candidate's lobby is looked at, even if the candidate is scored anyway, so the lobby's last pickup
+            // cost is what all of its candidates were scored with.
+            if (candidate[id] && (LobbyChanged(game, me, state.getLobby()) | changed)) {
+                stale[numStale++] = id;
+            }
+        }
+
+        if (numStale > 0) {
+            for (int ind = 0; ind < numStale; ind++) {
+                batch[ind] = game.getPassenger(stale[ind]).getPassenger();
+                batchTerms[ind] = deliveryTerms[stale[ind]];
+            }
+            scorer.Score(game, me, batch, numStale, batchTerms, batchCosts, batchScores);
+            for (int ind = 0; ind < numStale; ind++) {
+                int id = stale[ind];
+                pickupCosts[id] = batchCosts[ind];
+                scores[id] = batchScores[ind];
+                Place(id);
+            }
+        }
+
+        // batch is only used in here - don't hold on to its passengers.
+        Arrays.fill(batch, 0, numStale, null);
+        this.game = game;
+        seenMe = meState;
+        numRescored = numStale;
+    }
+
+    // true if the pickup cost of a lobby is not what it was the last Update the lobby was looked at on. Worked out
+    // once per Update.
+    private boolean LobbyChanged(GameStateSnapshot game, Player me, Company lobby) {
+        int id = lobby.getId();
+        if (lobbyUpdate[id] != numUpdates) {
+            int cost = scorer.PickupCost(game, me, lobby);
+            lobbyChanged[id] = cost != lobbyCost[id];
+            lobbyCost[id] = cost;
+            lobbyUpdate[id] = numUpdates;
+        }
+        return lobbyChanged[id];
+    }
+
+    /**
+     * The number of candidates.
+     */
+    public final int getSize() {
+        return size;
+    }
+
+    /**
+     * The number of candidates the last Update scored.
+     */
+    public final int getNumRescored() {
+        return numRescored;
+    }
+
+    /**
+     * The best candidates, best first.
+     *
+     * @param k           The most to return.
+     * @param pickupCosts Set to the cost for us to get to each one's lobby, in the same order. At least min(k, size)
+     *                    long.
+     */
+    public final ArrayList<Passenger> Top(int k, int[] pickupCosts) {
+        int count = Math.min(k, size);
+        ArrayList<Passenger> top = new ArrayList<Passenger>(count);
+        // the next best is always the top, or a child of one already taken.
+        int[] frontier = new int[count + 2];
+        int numFrontier = 0;
+        if (count > 0) {
+            frontier[numFrontier++] = 0;
+        }
+        while (top.size() < count) {
+            int pos = frontier[0];
+            numFrontier = PopFrontier(frontier, numFrontier);
+            int id = heap[pos];
+            pickupCosts[top.size()] = this.pickupCosts[id];
+            top.add(game.getPassenger(id).getPassenger());
+            for (int child = 2 * pos + 1; (child <= 2 * pos + 2) && (child < size); child++) {
+                numFrontier = PushFrontier(frontier, numFrontier, child);
+            }
+        }
+        return top;
+    }
+
+    // true if candidate a ranks ahead of candidate b.
+    private boolean Better(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        if (waitingAtDestination[a] != waitingAtDestination[b]) {
+            return waitingAtDestination[a] > waitingAtDestination[b];
+        }
+        return a < b;
+    }
+
+    // add a candidate, or move it to where its new score goes.
+    private void Place(int id) {
+        int pos = heapIndex[id];
+        if (pos < 0) {
+            pos = size++;
+            heap[pos] = id;
+        }
+        SiftDown(SiftUp(pos));
+    }
+
+    private void Remove(int id) {
+        int pos = heapIndex[id];
+        if (pos < 0) {
+            return;
+        }
+        heapIndex[id] = -1;
+        size--;
+        if (pos < size) {
+            heap[pos] = heap[size];
+            SiftDown(SiftUp(pos));
+        }
+    }
+
+    private int SiftUp(int pos) {
+        int id = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!Better(id, heap[parent])) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            heapIndex[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = id;
+        heapIndex[id] = pos;
+        return pos;
+    }
+
+    private void SiftDown(int pos) {
+        int id = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if ((child + 1 < size) && Better(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!Better(heap[child], id)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapIndex[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = id;
+        heapIndex[id] = pos;
+    }
+
+    // the frontier is a heap of positions in heap, best candidate first.
+    private int PushFrontier(int[] frontier, int num, int pos) {
+        int at = num++;
+        while (at > 0) {
+            int parent = (at - 1) >>> 1;
+            if (!Better(heap[pos], heap[frontier[parent]])) {
+                break;
+            }
+            frontier[at] = frontier[parent];
+            at = parent;
+        }
+        frontier[at] = pos;
+        return num;
+    }
+
+    private int PopFrontier(int[] frontier, int num) {
+        int last = frontier[--num];
+        int at = 0;
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= num) {
+                break;
+            }
+            if ((child + 1 < num) && Better(heap[frontier[child + 1]], heap[frontier[child]])) {
+                child++;
+            }
+            if (!Better(heap[frontier[child]], heap[last])) {
+                break;
+            }
+            frontier[at] = frontier[child];
+            at = child;
+        }
+        if (num > 0) {
+            frontier[at] = last;
+        }
+        return num;
+    }
+}
@@ -0,0 +1,175 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameStateSnapshot;
+import net.windward.Windwardopolis.api.Passenger;
+import net.windward.Windwardopolis.api.Player;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores the passengers we could pick up, in parallel. Each candidate is scored once (not once per comparison as a
+ * sort comparator would) by splitting the candidates into ranges that run as fork/join tasks on a pool shared by all
+ * the planning code - AnytimePlanner runs its look-ahead on the same pool.
+ *
+ * A candidate's score is its points per step, where the steps are weighted as the sample A.I. did: 70% the trip to
+ * the lobby and 30% the delivery, plus ENEMY_PENALTY per enemy waiting at the destination. The trip to the lobby
+ * includes CONTESTED_PENALTY if rivals will probably get there first. The delivery part (DeliveryTerm) only changes
+ * when the passenger or who is waiting at their destination does, so the caller keeps it and passes it in.
+ *
+ * Scoring reads the game from a GameStateSnapshot, not the Player and Passenger objects, so it does not matter what
+ * the thread reading status messages does to those while it runs.
+ */
+public class PickupScorer {
+
+    /**
+     * The number of threads planning uses. Set with -Dwindward.plannerThreads=N - the default is one per core.
+     */
+    public static final int PARALLELISM = Integer.getInteger("windward.plannerThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Cost added to a delivery for each enemy of the passenger waiting at the destination.
+     */
+    public static final int ENEMY_PENALTY = 1000;
+
+    /**
+     * Cost added to a pickup if rivals will probably get to the passenger before us.
+     */
+    public static final int CONTESTED_PENALTY = 1000;
+
+    // a task scores at most this many candidates itself - any more are split.
+    private static final int GRAIN = 8;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(PARALLELISM, 1));
+
+    private final BusStopDistanceMatrix stopDistances;
+    private final RivalPredictor rivals;
+
+    public PickupScorer(BusStopDistanceMatrix stopDistances, RivalPredictor rivals) {
+        this.stopDistances = stopDistances;
+        this.rivals = rivals;
+    }
+
+    /**
+     * The pool all planning tasks run on.
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Score each candidate.
+     *
+     * @param state       The game to score in.
+     * @param me          The player picking up (sets where we start from).
+     * @param candidates  The passengers to score. All must be waiting in a lobby and have a destination.
+     * @param count       The number of candidates (from the start of the arrays) to score.
+     * @param deliveryTerms The DeliveryTerm of each candidate.
+     * @param pickupCosts Set to the cost for us to get to each candidate's lobby, including CONTESTED_PENALTY.
+     * @param scores      Set to each candidate's score - higher is better.
+     */
+    public final void Score(GameStateSnapshot state, Player me, Passenger[] candidates, int count, double[] deliveryTerms, int[] pickupCosts, double[] scores) {
+        ScoreTask task = new ScoreTask(state, me, candidates, deliveryTerms, pickupCosts, scores, 0, count);
+        if (count <= GRAIN) {
+            // not worth handing to the pool.
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * The cost for us to get to a passenger's lobby, plus CONTESTED_PENALTY if rivals will probably get there first.
+     */
+    public final int PickupCost(GameStateSnapshot state, Player me, Passenger psngr) {
+        return PickupCost(state, me, state.getPassenger(psngr).getLobby());
+    }
+
+    /**
+     * The PickupCost of every passenger waiting at a bus stop.
+     */
+    public final int PickupCost(GameStateSnapshot state, Player me, Company lobby) {
+        int cost = stopDistances.getCost(state.getPlayer(me).getPosition(), lobby);
+        return rivals.IsLikelyLost(state, lobby, cost) ? cost + CONTESTED_PENALTY : cost;
+    }
+
+    /**
+     * Steps to deliver a passenger from its lobby, plus ENEMY_PENALTY for each enemy waiting at its destination.
+     */
+    public final int DeliveryCost(GameStateSnapshot state, Passenger psngr) {
+        GameStateSnapshot.PassengerState psngrState = state.getPassenger(psngr);
+        return stopDistances.getCost(psngrState.getLobby(), psngrState.getDestination()) + ENEMY_PENALTY * EnemiesWaiting(state, psngr);
+    }
+
+    /**
+     * The part of a passenger's score that does not depend on where we are: 30% of the steps to deliver them from
+     * their lobby, plus ENEMY_PENALTY for each enemy waiting at their destination.
+     */
+    public final double DeliveryTerm(GameStateSnapshot state, Passenger psngr) {
+        GameStateSnapshot.PassengerState psngrState = state.getPassenger(psngr);
+        return stopDistances.getCost(psngrState.getLobby(), psngrState.getDestination()) * 0.3 + ENEMY_PENALTY * EnemiesWaiting(state, psngr);
+    }
+
+    /**
+     * A passenger's score - higher is better.
+     *
+     * @param points       The points for delivering the passenger.
+     * @param pickupCost   PickupCost for the passenger.
+     * @param deliveryTerm DeliveryTerm for the passenger.
+     */
+    public static double Score(int points, int pickupCost, double deliveryTerm) {
+        return points / (pickupCost * 0.7 + deliveryTerm);
+    }
+
+    /**
+     * The number of a passenger's enemies waiting at their destination.
+     */
+    static int EnemiesWaiting(GameStateSnapshot state, Passenger psngr) {
+        int count = 0;
+        for (Passenger p : state.getWaiting(state.getPassenger(psngr).getDestination())) {
+            if (psngr.getEnemies().contains(p)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private final class ScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GameStateSnapshot state;
+        private final Player me;
+        private final Passenger[] candidates;
+        private final double[] deliveryTerms;
+        private final int[] pickupCosts;
+        private final double[] scores;
+        private final int from;
+        private final int to;
+
+        ScoreTask(GameStateSnapshot state, Player me, Passenger[] candidates, double[] deliveryTerms, int[] pickupCosts, double[] scores, int from, int to) {
+            this.state = state;
+            this.me = me;
+            this.candidates = candidates;
+            this.deliveryTerms = deliveryTerms;
+            this.pickupCosts = pickupCosts;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScoreTask(state, me, candidates, deliveryTerms, pickupCosts, scores, from, mid),
+                        new ScoreTask(state, me, candidates, deliveryTerms, pickupCosts, scores, mid, to));
+                return;
+            }
+            for (int ind = from; ind < to; ind++) {
+                Passenger psngr = candidates[ind];
+                pickupCosts[ind] = PickupCost(state, me, psngr);
+                scores[ind] = Score(psngr.getPointsDelivered(), pickupCosts[ind], deliveryTerms[ind]);
+            }
+        }
+    }
+}
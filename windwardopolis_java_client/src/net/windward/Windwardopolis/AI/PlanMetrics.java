@@ -0,0 +1,104 @@
+package net.windward.Windwardopolis.AI;
+
+/**
+ * What the planner did on one turn.
+ */
+public class PlanMetrics {
+
+    /**
+     * The time allowed for the turn.
+     */
+    private long privateBudgetMillis;
+
+    public final long getBudgetMillis() {
+        return privateBudgetMillis;
+    }
+
+    final void setBudgetMillis(long value) {
+        privateBudgetMillis = value;
+    }
+
+    /**
+     * The time the turn took, from when the brain was called until the orders were ready.
+     */
+    private long privateElapsedNanos;
+
+    public final long getElapsedNanos() {
+        return privateElapsedNanos;
+    }
+
+    final void setElapsedNanos(long value) {
+        privateElapsedNanos = value;
+    }
+
+    /**
+     * The time spent building the greedy order.
+     */
+    private long privateGreedyNanos;
+
+    public final long getGreedyNanos() {
+        return privateGreedyNanos;
+    }
+
+    final void setGreedyNanos(long value) {
+        privateGreedyNanos = value;
+    }
+
+    /**
+     * The most deliveries in a sequence of the look-ahead that was used. 0 if only the greedy order was used.
+     */
+    private int privateDepthCompleted;
+
+    public final int getDepthCompleted() {
+        return privateDepthCompleted;
+    }
+
+    final void setDepthCompleted(int value) {
+        privateDepthCompleted = value;
+    }
+
+    /**
+     * The widest beam search that was completed and used. 0 if only the greedy order was used.
+     */
+    private int privateBeamWidth;
+
+    public final int getBeamWidth() {
+        return privateBeamWidth;
+    }
+
+    final void setBeamWidth(int value) {
+        privateBeamWidth = value;
+    }
+
+    /**
+     * The number of pickup sequences scored.
+     */
+    private long privatePlansEvaluated;
+
+    public final long getPlansEvaluated() {
+        return privatePlansEvaluated;
+    }
+
+    final void setPlansEvaluated(long value) {
+        privatePlansEvaluated = value;
+    }
+
+    /**
+     * true if refining stopped because the budget ran out (rather than reaching the widest look-ahead).
+     */
+    private boolean privateTimedOut;
+
+    public final boolean getTimedOut() {
+        return privateTimedOut;
+    }
+
+    final void setTimedOut(boolean value) {
+        privateTimedOut = value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Elapsed=%1$sms/%2$sms, Greedy=%3$sms, Depth=%4$s, Beam=%5$s, Plans=%6$s%7$s", getElapsedNanos() / 1000000,
+                getBudgetMillis(), getGreedyNanos() / 1000000, getDepthCompleted(), getBeamWidth(), getPlansEvaluated(), getTimedOut() ? ", TimedOut" : "");
+    }
+}
@@ -0,0 +1,123 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameStateSnapshot;
+import net.windward.Windwardopolis.api.Passenger;
+import net.windward.Windwardopolis.api.Player;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Estimates when each rival limo could reach each bus stop. It is refreshed on every status message (for any
+ * player) and is cheap enough for that: per rival and bus stop it is one flow field lookup, from the limo's tile with
+ * the heading it is driving in so a limo that would have to turn around is not counted as close.
+ *
+ * A rival carrying a passenger has to deliver first, so its estimate is to the passenger's destination and then from
+ * there to the bus stop. We are not told who rivals plan to pick up, so this is when a rival could be at a stop, not
+ * when it will be.
+ */
+public class RivalPredictor {
+
+    private final BusStopDistanceMatrix stopDistances;
+    private final RoadGraph graph;
+    private final Company[] companies;
+    private final HashMap<Company, Integer> indexes;
+    // arrival[company][rival] - the estimated cost for each rival to get to the company's bus stop. Sized for the
+    // most players seen, the first numRivals are in use.
+    private int[][] arrival;
+    private int numRivals;
+
+    public RivalPredictor(RoadGraph graph, BusStopDistanceMatrix stopDistances, List<Company> companies) {
+        this.graph = graph;
+        this.stopDistances = stopDistances;
+        this.companies = companies.toArray(new Company[companies.size()]);
+        indexes = new HashMap<Company, Integer>(companies.size() * 2);
+        for (int ind = 0; ind < this.companies.length; ind++) {
+            indexes.put(this.companies[ind], ind);
+        }
+        arrival = new int[this.companies.length][4];
+    }
+
+    /**
+     * Re-estimate every rival's arrival at every bus stop from where the limos are now.
+     *
+     * @param game The game now.
+     * @param me   Me - not a rival.
+     */
+    public final void Update(GameStateSnapshot game, Player me) {
+        int numPlayers = game.getNumPlayers();
+        if ((companies.length > 0) && (arrival[0].length < numPlayers)) {
+            arrival = new int[companies.length][numPlayers];
+        }
+        numRivals = 0;
+        for (int id = 0; id < numPlayers; id++) {
+            GameStateSnapshot.PlayerState plyr = game.getPlayer(id);
+            if (plyr.getPlayer() == me) {
+                continue;
+            }
+            int node = graph.NodeAt(plyr.getPosition());
+            int state = node < 0 ? -1 : RoadGraph.State(node, RoadGraph.HeadingOfAngle(plyr.getAngle()));
+            Passenger carrying = plyr.getPassenger();
+            Company via = carrying == null ? null : game.getPassenger(carrying).getDestination();
+            int toVia = 0;
+            if ((via != null) && (state >= 0)) {
+                FlowField field = stopDistances.getField(via);
+                toVia = field == null ? FlowField.UNREACHABLE : field.StateCost(state);
+            }
+
+            for (int ind = 0; ind < companies.length; ind++) {
+                int cost;
+                if (state < 0) {
+                    cost = FlowField.UNREACHABLE;
+                } else if (via == null) {
+                    FlowField field = stopDistances.getField(companies[ind]);
+                    cost = field == null ? FlowField.UNREACHABLE : field.StateCost(state);
+                } else {
+                    cost = Math.min(FlowField.UNREACHABLE, toVia + stopDistances.getCost(via, companies[ind]));
+                }
+                arrival[ind][numRivals] = cost;
+            }
+            numRivals++;
+        }
+    }
+
+    /**
+     * The number of rivals that could get to a company's bus stop in less than a cost.
+     */
+    public final int RivalsBefore(Company company, int cost) {
+        int[] costs = arrival[indexes.get(company)];
+        int count = 0;
+        for (int ind = 0; ind < numRivals; ind++) {
+            if (costs[ind] < cost) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * true if a passenger will probably be gone before we get to them - there are at least as many rivals that can
+     * get to the lobby before us as there are passengers waiting there.
+     *
+     * @param game    The game now.
+     * @param psngr   The passenger.
+     * @param ourCost The cost for us to get to the passenger's lobby.
+     */
+    public final boolean IsLikelyLost(GameStateSnapshot game, Passenger psngr, int ourCost) {
+        Company lobby = game.getPassenger(psngr).getLobby();
+        return (lobby != null) && IsLikelyLost(game, lobby, ourCost);
+    }
+
+    /**
+     * true if the passengers waiting at a bus stop will probably be gone before we get there.
+     *
+     * @param game    The game now.
+     * @param lobby   The bus stop.
+     * @param ourCost The cost for us to get to the bus stop.
+     */
+    public final boolean IsLikelyLost(GameStateSnapshot game, Company lobby, int ourCost) {
+        int ahead = RivalsBefore(lobby, ourCost);
+        return (ahead > 0) && (ahead >= game.getWaiting(lobby).size());
+    }
+}
@@ -0,0 +1,380 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.MapSquare;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The roads of a map compiled into a directed graph held in flat int arrays (compressed sparse row). This is built
+ * once per map and then searched with no objects and no bounds checks.
+ *
+ * Each drivable tile is a node (0 .. getNumNodes()-1). A limo's options depend on which way it is going - it can't
+ * reverse on a straight road - so the graph is over states: a node plus the heading the limo entered it with
+ * (state = node * 4 + heading). The edges of a state are the moves the server allows from it:
+ * - a tile can be left through each of its open sides (Map.OpenSides) onto a tile open on the facing side - the
+ *   map's neighbor mask.
+ * - no U-turn, except at a U-turn tile (its only way out) or in an intersection/T junction (at a cost).
+ *
+ * Each edge costs STEP_COST plus STOP_SIGN_COST if the tile entered has a stop sign on the side entered, SIGNAL_COST
+ * if it has a traffic signal, and TURN_COST or U_TURN_COST if the move is not straight ahead. Every edge costs at
+ * least STEP_COST so the Manhattan distance is still an admissible A* heuristic.
+ */
+public final class RoadGraph {
+
+    // headings, also the index of the side of a tile.
+    public static final int NORTH = 0;
+    public static final int EAST = 1;
+    public static final int SOUTH = 2;
+    public static final int WEST = 3;
+
+    // ArtifactCache files record these, and a file built with other values is not used.
+    public static final int STEP_COST = 1;
+    public static final int STOP_SIGN_COST = 2;
+    public static final int SIGNAL_COST = 1;
+    public static final int TURN_COST = 1;
+    public static final int U_TURN_COST = 4;
+
+
+    // the MapSquare stop sign bit for each side.
+    private static final int[] stopSignBit = {MapSquare.STOP_NORTH, MapSquare.STOP_EAST, MapSquare.STOP_SOUTH, MapSquare.STOP_WEST};
+
+    private final int width;
+    private final int height;
+    private final int numNodes;
+    // node of each tile (y * width + x), -1 if not drivable.
+    private final int[] nodeOfTile;
+    private final int[] tileOfNode;
+    // bit n set if side n of the node is open.
+    private final byte[] openSides;
+    // bit n set if side n of the node leads onto another node (the map's neighbor mask).
+    private final byte[] connected;
+    // the tile index offset to the tile on each side.
+    private final int[] tileOffset;
+    // the edges of state s are edgeStart[s] .. edgeStart[s+1]-1.
+    private final int[] edgeStart;
+    private final int[] edgeTarget;
+    private final int[] edgeCost;
+    // the same edges by the state they go to: the edges into state s are inEdgeStart[s] .. inEdgeStart[s+1]-1 and
+    // come from inEdgeSource[] at a cost of inEdgeCost[].
+    private final int[] inEdgeStart;
+    private final int[] inEdgeSource;
+    private final int[] inEdgeCost;
+    private final int signature;
+
+    public RoadGraph(Map map) {
+        width = map.getWidth();
+        height = map.getHeight();
+        tileOffset = new int[]{-width, 1, width, -1};
+
+        nodeOfTile = new int[width * height];
+        Arrays.fill(nodeOfTile, -1);
+        BitSet driveable = map.getDriveable();
+        numNodes = driveable.cardinality();
+        tileOfNode = new int[numNodes];
+        openSides = new byte[numNodes];
+        connected = new byte[numNodes];
+        int node = 0;
+        for (int tile = driveable.nextSetBit(0); tile >= 0; tile = driveable.nextSetBit(tile + 1), node++) {
+            short packed = map.Tile(tile);
+            nodeOfTile[tile] = node;
+            tileOfNode[node] = tile;
+            openSides[node] = (byte) Map.OpenSides(Map.DirectionOf(packed));
+            connected[node] = (byte) Map.NeighborMaskOf(packed);
+        }
+
+        // count the edges, then fill them in.
+        edgeStart = new int[numNodes * 4 + 1];
+        int numEdges = 0;
+        for (int state = 0; state < numNodes * 4; state++) {
+            edgeStart[state] = numEdges;
+            for (int side = 0; side < 4; side++) {
+                if (Neighbor(state, side) >= 0) {
+                    numEdges++;
+                }
+            }
+        }
+        edgeStart[numNodes * 4] = numEdges;
+        edgeTarget = new int[numEdges];
+        edgeCost = new int[numEdges];
+        int edge = 0;
+        for (int state = 0; state < numNodes * 4; state++) {
+            int heading = state & 3;
+            for (int side = 0; side < 4; side++) {
+                int next = Neighbor(state, side);
+                if (next < 0) {
+                    continue;
+                }
+                short square = map.Tile(tileOfNode[next]);
+                int cost = STEP_COST;
+                if ((Map.StopSignsOf(square) & stopSignBit[Reverse(side)]) != 0) {
+                    cost += STOP_SIGN_COST;
+                }
+                if (Map.SignalOf(square)) {
+                    cost += SIGNAL_COST;
+                }
+                if (side == Reverse(heading)) {
+                    cost += U_TURN_COST;
+                } else if (side != heading) {
+                    cost += TURN_COST;
+                }
+                edgeTarget[edge] = next * 4 + side;
+                edgeCost[edge] = cost;
+                edge++;
+            }
+        }
+
+        // the reverse graph, for searches out from a destination.
+        inEdgeStart = new int[numNodes * 4 + 1];
+        for (edge = 0; edge < numEdges; edge++) {
+            inEdgeStart[edgeTarget[edge] + 1]++;
+        }
+        for (int state = 0; state < numNodes * 4; state++) {
+            inEdgeStart[state + 1] += inEdgeStart[state];
+        }
+        inEdgeSource = new int[numEdges];
+        inEdgeCost = new int[numEdges];
+        int[] fill = Arrays.copyOf(inEdgeStart, numNodes * 4);
+        for (int state = 0; state < numNodes * 4; state++) {
+            for (edge = edgeStart[state]; edge < edgeStart[state + 1]; edge++) {
+                int at = fill[edgeTarget[edge]]++;
+                inEdgeSource[at] = state;
+                inEdgeCost[at] = edgeCost[edge];
+            }
+        }
+
+        signature = 31 * (31 * (31 * width + height) + Arrays.hashCode(edgeTarget)) + Arrays.hashCode(edgeCost);
+    }
+
+    // a graph read back from an ArtifactCache file.
+    private RoadGraph(int width, int height, int[] nodeOfTile, int[] tileOfNode, byte[] openSides, byte[] connected,
+                      int[] edgeStart, int[] edgeTarget, int[] edgeCost, int[] inEdgeStart, int[] inEdgeSource,
+                      int[] inEdgeCost, int signature) {
+        this.width = width;
+        this.height = height;
+        this.numNodes = tileOfNode.length;
+        this.tileOffset = new int[]{-width, 1, width, -1};
+        this.nodeOfTile = nodeOfTile;
+        this.tileOfNode = tileOfNode;
+        this.openSides = openSides;
+        this.connected = connected;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeCost = edgeCost;
+        this.inEdgeStart = inEdgeStart;
+        this.inEdgeSource = inEdgeSource;
+        this.inEdgeCost = inEdgeCost;
+        this.signature = signature;
+    }
+
+    /**
+     * The bytes Write puts.
+     */
+    int ByteSize() {
+        return 4 * (5 + nodeOfTile.length + tileOfNode.length + 2 * edgeStart.length + 4 * edgeTarget.length) + 2 * numNodes;
+    }
+
+    /**
+     * Write the graph for ArtifactCache. Read gets it back.
+     */
+    void Write(ByteBuffer buf) {
+        buf.putInt(width);
+        buf.putInt(height);
+        buf.putInt(numNodes);
+        buf.putInt(edgeTarget.length);
+        buf.putInt(signature);
+        ArtifactCache.PutInts(buf, nodeOfTile);
+        ArtifactCache.PutInts(buf, tileOfNode);
+        ArtifactCache.PutInts(buf, edgeStart);
+        ArtifactCache.PutInts(buf, edgeTarget);
+        ArtifactCache.PutInts(buf, edgeCost);
+        ArtifactCache.PutInts(buf, inEdgeStart);
+        ArtifactCache.PutInts(buf, inEdgeSource);
+        ArtifactCache.PutInts(buf, inEdgeCost);
+        buf.put(openSides);
+        buf.put(connected);
+    }
+
+    /**
+     * Read a graph put by Write.
+     */
+    static RoadGraph Read(ByteBuffer buf) {
+        int width = buf.getInt();
+        int height = buf.getInt();
+        int numNodes = buf.getInt();
+        int numEdges = buf.getInt();
+        int signature = buf.getInt();
+        int[] nodeOfTile = ArtifactCache.GetInts(buf, width * height);
+        int[] tileOfNode = ArtifactCache.GetInts(buf, numNodes);
+        int[] edgeStart = ArtifactCache.GetInts(buf, numNodes * 4 + 1);
+        int[] edgeTarget = ArtifactCache.GetInts(buf, numEdges);
+        int[] edgeCost = ArtifactCache.GetInts(buf, numEdges);
+        int[] inEdgeStart = ArtifactCache.GetInts(buf, numNodes * 4 + 1);
+        int[] inEdgeSource = ArtifactCache.GetInts(buf, numEdges);
+        int[] inEdgeCost = ArtifactCache.GetInts(buf, numEdges);
+        byte[] openSides = new byte[numNodes];
+        buf.get(openSides);
+        byte[] connected = new byte[numNodes];
+        buf.get(connected);
+        return new RoadGraph(width, height, nodeOfTile, tileOfNode, openSides, connected, edgeStart, edgeTarget, edgeCost,
+                inEdgeStart, inEdgeSource, inEdgeCost, signature);
+    }
+
+    /**
+     * The node a state leaving through side goes to. -1 if that move is not allowed.
+     */
+    private int Neighbor(int state, int side) {
+        int node = state >> 2;
+        if ((connected[node] & (1 << side)) == 0) {
+            return -1;
+        }
+        // no U-turn on a plain road - only where it is the way out or there is room to turn around.
+        int sides = openSides[node];
+        if ((side == Reverse(state & 3)) && (sides != (1 << side)) && (Integer.bitCount(sides) < 3)) {
+            return -1;
+        }
+        return nodeOfTile[tileOfNode[node] + tileOffset[side]];
+    }
+
+    public static int Reverse(int heading) {
+        return (heading + 2) & 3;
+    }
+
+    public static int State(int node, int heading) {
+        return node * 4 + heading;
+    }
+
+    public static int NodeOfState(int state) {
+        return state >> 2;
+    }
+
+    public static int HeadingOfState(int state) {
+        return state & 3;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    public int getNumStates() {
+        return numNodes * 4;
+    }
+
+    public int getNumEdges() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * A hash of the graph (layout, moves and costs). Equal for two maps with the same roads.
+     */
+    public int getSignature() {
+        return signature;
+    }
+
+    /**
+     * The node at a tile. -1 if off the map or not drivable.
+     */
+    public int NodeAt(int x, int y) {
+        if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+            return -1;
+        }
+        return nodeOfTile[y * width + x];
+    }
+
+    public int NodeAt(Point pt) {
+        return NodeAt(pt.x, pt.y);
+    }
+
+    public int X(int node) {
+        return tileOfNode[node] % width;
+    }
+
+    public int Y(int node) {
+        return tileOfNode[node] / width;
+    }
+
+    /**
+     * The open sides of a node as a bit mask of 1 << side.
+     */
+    public int OpenSides(int node) {
+        return openSides[node];
+    }
+
+    /**
+     * The first edge of a state.
+     */
+    public int FirstEdge(int state) {
+        return edgeStart[state];
+    }
+
+    /**
+     * One past the last edge of a state.
+     */
+    public int EndEdge(int state) {
+        return edgeStart[state + 1];
+    }
+
+    /**
+     * The state an edge goes to.
+     */
+    public int EdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public int EdgeCost(int edge) {
+        return edgeCost[edge];
+    }
+
+    /**
+     * The first edge into a state. The in edges are numbered separately from the edges out.
+     */
+    public int FirstInEdge(int state) {
+        return inEdgeStart[state];
+    }
+
+    /**
+     * One past the last edge into a state.
+     */
+    public int EndInEdge(int state) {
+        return inEdgeStart[state + 1];
+    }
+
+    /**
+     * The state an in edge comes from.
+     */
+    public int InEdgeSource(int inEdge) {
+        return inEdgeSource[inEdge];
+    }
+
+    public int InEdgeCost(int inEdge) {
+        return inEdgeCost[inEdge];
+    }
+
+    /**
+     * Heading of a limo from its angle in degrees (0 is north, clockwise). Rounded the way the server's
+     * MapSquare.AngleToDirection does.
+     */
+    public static int HeadingOfAngle(int angle) {
+        if ((45 <= angle) && (angle <= 135)) {
+            return EAST;
+        }
+        if ((135 <= angle) && (angle <= 225)) {
+            return SOUTH;
+        }
+        if ((225 <= angle) && (angle <= 315)) {
+            return WEST;
+        }
+        return NORTH;
+    }
+}
@@ -0,0 +1,122 @@
+package net.windward.Windwardopolis.AI;
+
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded cache of calculated routes. The key packs the start and end tile indices into one long and the least
+ * recently used route is evicted once the cache is full, so it can be left on for the whole game.
+ */
+public class RouteCache {
+
+    /**
+     * The number of routes kept if no size is given.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * A cached route. The tiles are tile indices (y * width + x), start and end inclusive.
+     */
+    static final class Route {
+        final int[] tiles;
+        final int cost;
+
+        Route(int[] tiles, int cost) {
+            this.tiles = tiles;
+            this.cost = cost;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Route> routes;
+    private long hits;
+    private long misses;
+
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        routes = new LruMap(capacity);
+    }
+
+    // access order so iteration order is least recently used first, and the eldest is dropped when over capacity.
+    private static final class LruMap extends LinkedHashMap<Long, Route> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        LruMap(int capacity) {
+            super(capacity * 4 / 3 + 1, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(java.util.Map.Entry<Long, Route> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * The cache key for a route.
+     *
+     * @param startTile The index of the start tile.
+     * @param endTile   The index of the end tile.
+     * @return The key.
+     */
+    static long Key(int startTile, int endTile) {
+        return ((long) startTile << 32) | (endTile & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Look up a route. Counts as a hit or a miss.
+     *
+     * @return The route or null if not cached.
+     */
+    final Route get(long key) {
+        Route route = routes.get(key);
+        if (route == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return route;
+    }
+
+    final void put(long key, Route route) {
+        routes.put(key, route);
+    }
+
+    /**
+     * Remove all routes. The hit/miss counts are kept.
+     */
+    public final void clear() {
+        routes.clear();
+    }
+
+    /**
+     * The number of routes presently cached.
+     */
+    public final int getSize() {
+        return routes.size();
+    }
+
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The number of lookups that found a route.
+     */
+    public final long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of lookups that did not find a route.
+     */
+    public final long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Size=%1$s/%2$s, Hits=%3$s, Misses=%4$s", getSize(), getCapacity(), getHits(), getMisses());
+    }
+}
@@ -0,0 +1,348 @@
+package net.windward.Windwardopolis.AI;
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameStateSnapshot;
+import net.windward.Windwardopolis.api.Passenger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A beam search over sequences of deliveries: pick up a passenger, deliver them, pick up the next one from there, and
+ * so on. Each sequence is scored by its points per step. Each depth adds one more delivery to every sequence in the
+ * beam, and only the beamWidth best sequences are kept for the next depth.
+ *
+ * A sequence changes who is waiting where, and that is tracked along it. A passenger we pick up has left their
+ * lobby, so they no longer count as an enemy waiting there. A passenger we deliver who has more companies on their
+ * route (Passenger.getRoute()) waits at that destination for their next ride, so they now count as an enemy there.
+ * A delivery costs ENEMY_PENALTY steps for each enemy of the passenger waiting at their destination.
+ *
+ * Stop to stop costs come from the BusStopDistanceMatrix. Load copies the ones the candidates need into a small
+ * array, so a search does no map or path work. The nodes of one depth are expanded in parallel on the PickupScorer
+ * pool.
+ */
+public class RoutePlanner {
+
+    // expand at most this many beam nodes in one task.
+    private static final int GRAIN = 16;
+
+    private final BusStopDistanceMatrix stopDistances;
+
+    // per Load call. The stops are numbered 0 .. numStops-1.
+    private int numCandidates;
+    private int numStops;
+    private int[] stopCost;
+    private int[] lobby;
+    private int[] destination;
+    private int[] points;
+    private int[] firstSteps;
+    // true if the passenger waits at their destination for another ride after we deliver them.
+    private boolean[] staysAtDestination;
+    // enemy[c * numCandidates + e] is true if candidate e is an enemy of candidate c.
+    private boolean[] enemy;
+    // the number of enemies of each candidate waiting at their destination now.
+    private int[] enemiesWaiting;
+
+    // per Search call. The beam at each depth: the candidate delivered and the index of the node it extends.
+    private int[][] beamPassenger;
+    private int[][] beamParent;
+    private int[] beamSize;
+    // of the nodes at the current depth.
+    private int[] nodeStop;
+    private int[] nodeSteps;
+    private int[] nodePoints;
+    private int[] nodeFirst;
+    // the children of the current depth: childParent[i] < 0 if child i is not a valid sequence.
+    private int[] childParent;
+    private int[] childSteps;
+    private double[] childValue;
+    private long[] order;
+    private long sequencesEvaluated;
+    private int depthReached;
+    private boolean pruned;
+
+    public RoutePlanner(BusStopDistanceMatrix stopDistances) {
+        this.stopDistances = stopDistances;
+    }
+
+    /**
+     * Set the passengers the sequences are made of.
+     *
+     * @param game        The game now.
+     * @param candidates  The passengers we can pick up. All must be waiting in a lobby and have a destination.
+     * @param pickupCosts pickupCosts[i] is the cost for our limo to get to candidates[i]'s lobby.
+     */
+    public final void Load(GameStateSnapshot game, Passenger[] candidates, int[] pickupCosts) {
+        numCandidates = candidates.length;
+        HashMap<Company, Integer> stopIndexes = new HashMap<Company, Integer>();
+        Company[] stops = new Company[numCandidates * 2];
+        lobby = new int[numCandidates];
+        destination = new int[numCandidates];
+        points = new int[numCandidates];
+        staysAtDestination = new boolean[numCandidates];
+        enemiesWaiting = new int[numCandidates];
+        numStops = 0;
+        for (int ind = 0; ind < numCandidates; ind++) {
+            Passenger psngr = candidates[ind];
+            GameStateSnapshot.PassengerState psngrState = game.getPassenger(psngr);
+            lobby[ind] = StopIndex(stopIndexes, stops, psngrState.getLobby());
+            destination[ind] = StopIndex(stopIndexes, stops, psngrState.getDestination());
+            points[ind] = psngr.getPointsDelivered();
+            staysAtDestination[ind] = psngrState.getRouteLength() > 0;
+            enemiesWaiting[ind] = PickupScorer.EnemiesWaiting(game, psngr);
+        }
+
+        stopCost = new int[numStops * numStops];
+        for (int from = 0; from < numStops; from++) {
+            for (int to = 0; to < numStops; to++) {
+                stopCost[from * numStops + to] = stopDistances.getCost(stops[from], stops[to]);
+            }
+        }
+
+        enemy = new boolean[numCandidates * numCandidates];
+        for (int ind = 0; ind < numCandidates; ind++) {
+            for (int other = 0; other < numCandidates; other++) {
+                enemy[ind * numCandidates + other] = candidates[ind].getEnemies().contains(candidates[other]);
+            }
+        }
+
+        firstSteps = new int[numCandidates];
+        for (int ind = 0; ind < numCandidates; ind++) {
+            firstSteps[ind] = pickupCosts[ind] + DeliverySteps(ind, enemiesWaiting[ind]);
+        }
+    }
+
+    private int StopIndex(HashMap<Company, Integer> stopIndexes, Company[] stops, Company company) {
+        Integer index = stopIndexes.get(company);
+        if (index == null) {
+            index = numStops;
+            stops[numStops++] = company;
+            stopIndexes.put(company, index);
+        }
+        return index;
+    }
+
+    // steps from a candidate's lobby to their destination, with the enemy penalty.
+    private int DeliverySteps(int candidate, int enemies) {
+        return stopCost[lobby[candidate] * numStops + destination[candidate]] + PickupScorer.ENEMY_PENALTY * enemies;
+    }
+
+    /**
+     * Run the beam search on the candidates from the last Load.
+     *
+     * @param beamWidth The number of sequences kept at each depth.
+     * @param maxDepth  The most deliveries in a sequence.
+     * @param deadline  Give up at this System.nanoTime().
+     * @param values    Set to the best points per step of any sequence that starts with each candidate.
+     * @return false if the deadline passed before the search finished (values is then incomplete).
+     */
+    public final boolean Search(int beamWidth, int maxDepth, long deadline, double[] values) {
+        int width = Math.max(beamWidth, 1);
+        beamPassenger = new int[maxDepth][];
+        beamParent = new int[maxDepth][];
+        beamSize = new int[maxDepth];
+        nodeStop = new int[width];
+        nodeSteps = new int[width];
+        nodePoints = new int[width];
+        nodeFirst = new int[width];
+        sequencesEvaluated = 0;
+        depthReached = 0;
+        pruned = false;
+        if (numCandidates == 0) {
+            return true;
+        }
+
+        // depth 1 - every candidate on its own.
+        childParent = new int[numCandidates];
+        childSteps = new int[numCandidates];
+        childValue = new double[numCandidates];
+        for (int ind = 0; ind < numCandidates; ind++) {
+            childParent[ind] = 0;
+            childSteps[ind] = firstSteps[ind];
+            childValue[ind] = points[ind] / (double) Math.max(firstSteps[ind], 1);
+            values[ind] = childValue[ind];
+        }
+        sequencesEvaluated = numCandidates;
+        Select(0, numCandidates, 1, width);
+        depthReached = 1;
+
+        for (int depth = 1; depth < maxDepth; depth++) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            int parents = beamSize[depth - 1];
+            int numChildren = parents * numCandidates;
+            if ((childParent == null) || (childParent.length < numChildren)) {
+                childParent = new int[numChildren];
+                childSteps = new int[numChildren];
+                childValue = new double[numChildren];
+            }
+            ExpandTask task = new ExpandTask(depth, 0, parents);
+            if (parents <= GRAIN) {
+                task.compute();
+            } else {
+                PickupScorer.getPool().invoke(task);
+            }
+
+            int found = 0;
+            for (int child = 0; child < numChildren; child++) {
+                if (childParent[child] >= 0) {
+                    found++;
+                    int first = nodeFirst[childParent[child]];
+                    if (childValue[child] > values[first]) {
+                        values[first] = childValue[child];
+                    }
+                }
+            }
+            if (found == 0) {
+                break;
+            }
+            sequencesEvaluated += found;
+            Select(depth, numChildren, numCandidates, width);
+            depthReached = depth + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Keep the best width children as the beam at a depth.
+     *
+     * @param perParent The number of children of each parent (1 at depth 0, where the parents are all a dummy).
+     */
+    private void Select(int depth, int numChildren, int perParent, int width) {
+        // sort on the value as a float in the high bits and the child index (inverted, so lower comes first on a
+        // tie) in the low bits - primitive and deterministic.
+        if ((order == null) || (order.length < numChildren)) {
+            order = new long[numChildren];
+        }
+        int count = 0;
+        for (int child = 0; child < numChildren; child++) {
+            if (childParent[child] >= 0) {
+                order[count++] = ((long) Float.floatToIntBits((float) childValue[child]) << 32) | (0xFFFFFFFFL & ~child);
+            }
+        }
+        Arrays.sort(order, 0, count);
+        int size = Math.min(width, count);
+        pruned |= size < count;
+
+        int[] passenger = new int[size];
+        int[] parent = new int[size];
+        int[] stop = new int[size];
+        int[] steps = new int[size];
+        int[] pts = new int[size];
+        int[] first = new int[size];
+        for (int ind = 0; ind < size; ind++) {
+            int child = ~(int) order[count - 1 - ind];
+            int candidate = child % perParent;
+            int from = childParent[child];
+            passenger[ind] = depth == 0 ? child : candidate;
+            parent[ind] = from;
+            stop[ind] = destination[passenger[ind]];
+            steps[ind] = childSteps[child];
+            pts[ind] = (depth == 0 ? 0 : nodePoints[from]) + points[passenger[ind]];
+            first[ind] = depth == 0 ? child : nodeFirst[from];
+        }
+        beamPassenger[depth] = passenger;
+        beamParent[depth] = parent;
+        beamSize[depth] = size;
+        System.arraycopy(stop, 0, nodeStop, 0, size);
+        System.arraycopy(steps, 0, nodeSteps, 0, size);
+        System.arraycopy(pts, 0, nodePoints, 0, size);
+        System.arraycopy(first, 0, nodeFirst, 0, size);
+    }
+
+    /**
+     * Add each candidate to a beam node. Child node * numCandidates + candidate.
+     */
+    private void Expand(int depth, int node, int[] chain) {
+        // the sequence so far, last delivery first.
+        int length = 0;
+        for (int d = depth - 1, at = node; d >= 0; d--) {
+            chain[length++] = beamPassenger[d][at];
+            at = beamParent[d][at];
+        }
+
+        int base = node * numCandidates;
+        int stop = nodeStop[node];
+        for (int candidate = 0; candidate < numCandidates; candidate++) {
+            int child = base + candidate;
+            int enemies = enemiesWaiting[candidate];
+            boolean used = false;
+            for (int ind = 0; ind < length; ind++) {
+                int prev = chain[ind];
+                if (prev == candidate) {
+                    used = true;
+                    break;
+                }
+                if (enemy[candidate * numCandidates + prev]) {
+                    // we took them from their lobby, and left them at their destination if they ride again.
+                    if (lobby[prev] == destination[candidate]) {
+                        enemies--;
+                    }
+                    if (staysAtDestination[prev] && (destination[prev] == destination[candidate])) {
+                        enemies++;
+                    }
+                }
+            }
+            if (used) {
+                childParent[child] = -1;
+                continue;
+            }
+            int steps = nodeSteps[node] + stopCost[stop * numStops + lobby[candidate]] + DeliverySteps(candidate, enemies);
+            childParent[child] = node;
+            childSteps[child] = steps;
+            childValue[child] = (nodePoints[node] + points[candidate]) / (double) Math.max(steps, 1);
+        }
+    }
+
+    /**
+     * The number of sequences scored by the last Search.
+     */
+    public final long getSequencesEvaluated() {
+        return sequencesEvaluated;
+    }
+
+    /**
+     * The most deliveries in a sequence scored by the last Search.
+     */
+    public final int getDepthReached() {
+        return depthReached;
+    }
+
+    /**
+     * true if the last Search had to drop sequences to keep to the beam width - a wider beam might do better.
+     */
+    public final boolean getPruned() {
+        return pruned;
+    }
+
+    /**
+     * Expands a range of the nodes at a depth.
+     */
+    private final class ExpandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int depth;
+        private final int from;
+        private final int to;
+
+        ExpandTask(int depth, int from, int to) {
+            this.depth = depth;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ExpandTask(depth, from, mid), new ExpandTask(depth, mid, to));
+                return;
+            }
+            int[] chain = new int[depth];
+            for (int node = from; node < to; node++) {
+                Expand(depth, node, chain);
+            }
+        }
+    }
+}
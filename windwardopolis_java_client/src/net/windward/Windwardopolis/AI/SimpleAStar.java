@@ -2,15 +2,17 @@ package net.windward.Windwardopolis.AI;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import net.windward.Windwardopolis.api.Map;
-import net.windward.Windwardopolis.api.MapSquare;
-import net.windward.Windwardopolis.TRAP;
-// No comments about how this is the world's worst A* implementation. It is purposely simplistic to leave the teams
-// the opportunity to improve greatly upon this. (I was yelled at last year for making the sample A.I.'s too good.)
+// The sample A.I. shipped a breadth-first search here that never used its heuristic. This is a real A* over the
+// map's RoadGraph: the searched states are (tile, heading) pairs held as int ids so one-way moves, U-turn rules, stop
+// signs, signals and turns are all priced in. The open set is a binary heap of state ids and the g-cost and parent
+// bookkeeping lives in int arrays that are reused from one search to the next. After the first search on a map the
+// only allocation is the returned path and its route cache entry.
 //
-// Also there is (at least) one very subtle bug in the below code. It is very rarely hit.
+// Point to point searches run on the CorridorGraph (just the intersections, T junctions and U-turns, joined by whole
+// corridors) and only the path asked for is walked tile by tile. CalculateCost does not walk it at all.
 
 
 /**
@@ -18,256 +20,318 @@ import net.windward.Windwardopolis.TRAP;
  * Good intro at http://www.policyalmanac.org/games/aStarTutorial.htm
  */
 public class SimpleAStar {
-    private static final Point[] offsets = {
-            new Point(-1, 0),
-            new Point(1, 0),
-            new Point(0, -1),
-            new Point(0, 1)
-    };
 
+    /**
+     * The cost reported in last_cost when there is no path.
+     */
     private static final int DEAD_END = 10000;
 
     public static int last_cost;
 
-    private static HashMap<Pair<Point, Point>, Pair<ArrayList<Point>, Integer> > paths = new HashMap<Pair<Point, Point>, Pair<ArrayList<Point>, Integer>>();
-
-    private static final Point ptOffMap = new Point(-1, -1);
+    // routes already calculated on this map. Cleared when we are bound to a map with a different layout.
+    private static final RouteCache routes = new RouteCache(RouteCache.DEFAULT_CAPACITY);
+
+    // the search workspace. It is sized to the map and only rebuilt when a different map is passed in.
+    private static Map lastMap;
+    private static int lastMapSignature;
+    private static RoadGraph graph;
+    private static CorridorGraph corridors;
+    private static int width;
+    private static int[] gCost;
+    private static int[] parent;
+    // a state's gCost/parent are only valid if seen[state] == generation, and it is closed if closed[state] ==
+    // generation. Bumping the generation resets the whole workspace without touching the arrays.
+    private static int[] seen;
+    private static int[] closed;
+    // the nodes a search is looking for are marked with target[node] == generation. When one is first reached
+    // (cheapest, with any heading) reached[node] is set to generation and reachedState[node] to the state.
+    private static int[] target;
+    private static int[] reached;
+    private static int[] reachedState;
+    private static int generation;
+    private static TileHeap open;
 
     /**
-     * Calculate a path from start to end. No comments about how this is the world's worst A* implementation. It is purposely
-     * simplistic to leave the teams the opportunity to improve greatly upon this. (I was yelled at last year for making the
-     * sample A.I.'s too good.)
+     * Calculate a path from start to end using A* over the map's corridor graph with a Manhattan distance heuristic.
+     * Every move costs at least RoadGraph.STEP_COST so the heuristic is admissible and the path returned is a cheapest
+     * path. The limo may start with any heading.
      *
      * @param map   The game map.
      * @param start The tile units of the start point (inclusive).
      * @param end   The tile units of the end point (inclusive).
-     * @return The path from start to end.
+     * @return The path from start to end. Empty if there is no path (last_cost is then DEAD_END).
      */
-    public static java.util.ArrayList<Point> CalculatePath(Map map, Point start, Point end) {
+    public static synchronized java.util.ArrayList<Point> CalculatePath(Map map, Point start, Point end) {
 
         // should never happen but just to be sure
         if (start.equals(end)) {
+            last_cost = 0;
             return new java.util.ArrayList<Point>(java.util.Arrays.asList(new Point[]{start}));
         }
 
-
-
-        // nodes are points we have walked to
-        java.util.HashMap<Point, TrailPoint> seen_nodes = new java.util.HashMap<Point, TrailPoint>();
-
-
-        TrailPoint tpOn = new TrailPoint(start, end, 0);
-
-        java.util.ArrayList<TrailPoint> queue = new ArrayList<TrailPoint>();
-
-        queue.add(tpOn);
-        seen_nodes.put(start, tpOn);
-
-        java.util.HashMap<TrailPoint, TrailPoint> previous = new HashMap<TrailPoint, TrailPoint>();
-
-        if(paths.containsKey(new Pair<Point, Point>(start, end))){
-            last_cost = paths.get(new Pair<Point, Point>(start, end)).getRight();
-            return paths.get(new Pair<Point, Point>(start, end)).getLeft();
+        Bind(map);
+        int startNode = graph.NodeAt(start);
+        int endNode = graph.NodeAt(end);
+        if ((startNode < 0) || (endNode < 0)) {
+            last_cost = DEAD_END;
+            return new java.util.ArrayList<Point>();
         }
 
-        while(true) {
-
-            //otherwise calculate it
-            if (queue.isEmpty()) {
-                int i = 0;
+        int startTile = start.y * width + start.x;
+        int endTile = end.y * width + end.x;
+        long key = RouteCache.Key(startTile, endTile);
+        RouteCache.Route route = routes.get(key);
+        if (route != null) {
+            last_cost = route.cost;
+            ArrayList<Point> path = new ArrayList<Point>(route.tiles.length + 1);
+            for (int tile : route.tiles) {
+                path.add(new Point(tile % width, tile / width));
             }
-
-            TrailPoint trail_temp = queue.remove(0);
-
-            for (Point ptOffset : offsets) {
-                Point pt = new Point(trail_temp.getMapTile().x + ptOffset.x, trail_temp.getMapTile().y + ptOffset.y);
-                MapSquare square = map.SquareOrDefault(pt);
-                // off the map or not a road/bus stop
-                if ((square == null) || (!square.getIsDriveable())) {
-                    continue;
-                }
-
-                if (!seen_nodes.containsKey(pt)) {
-
-                    TrailPoint tp= new TrailPoint(pt, end, trail_temp.getCost()+1);
-                    queue.add(tp);
-                    seen_nodes.put(pt, tp);
-                    //continue;
-                    previous.put(tp, trail_temp);
-                    if (pt.equals(end)) {
-                        last_cost = tp.getCost();
-                        //construct path here
-                        ArrayList<Point> path = new ArrayList<Point>();
-                        TrailPoint prev = previous.get(tp);
-                        path.add(tp.getMapTile());
-                        int cost = 0;
-
-                        do {
-                            cost++;
-                            path.add(0, prev.getMapTile());
-                            paths.put(new Pair<Point, Point>(prev.getMapTile(),end), new Pair((ArrayList<Point>)path.clone(), cost));
-                            //System.out.println(seen_nodes.size());
-                            prev = previous.get(prev);
-                        } while ((!prev.getMapTile().equals(start)));
-                        last_cost = cost;
-                        return path;
-                    }
-                }
-
-            }
-
+            return path;
         }
-    }
-
-    private static class Pair<L,R> {
-
-        private final L left;
-        private final R right;
 
-        public Pair(L left, R right) {
-            this.left = left;
-            this.right = right;
+        int cost = corridors.Search(startNode, endNode);
+        if (cost == CorridorGraph.NO_PATH) {
+            last_cost = DEAD_END;
+            return new java.util.ArrayList<Point>();
         }
 
-        public L getLeft() { return left; }
-        public R getRight() { return right; }
-
-        //@Override
-        //public int hashCode() { return left.hashCode() ^ right.hashCode(); }
-
-        @Override
-        public boolean equals(Object o) {
-            if (o == null) return false;
-            if (!(o instanceof Pair)) return false;
-            Pair pairo = (Pair) o;
-            return this.left.equals(pairo.getLeft()) &&
-                    this.right.equals(pairo.getRight());
+        last_cost = cost;
+        int[] pathNodes = corridors.BuildPath(startNode);
+        int[] tiles = new int[pathNodes.length];
+        ArrayList<Point> path = new ArrayList<Point>(pathNodes.length + 1);
+        for (int ind = 0; ind < pathNodes.length; ind++) {
+            int x = graph.X(pathNodes[ind]);
+            int y = graph.Y(pathNodes[ind]);
+            tiles[ind] = y * width + x;
+            path.add(new Point(x, y));
         }
-
+        routes.put(key, new RouteCache.Route(tiles, last_cost));
+        return path;
     }
 
-    private static class TrailPoint {
-        /**
-         * The Map tile for this point in the trail.
-         */
-        private Point privateMapTile;
-
-        public final Point getMapTile() {
-            return privateMapTile;
+    /**
+     * The cost of the cheapest path from start to end - what last_cost would be after CalculatePath - without
+     * building the path. This does not allocate.
+     *
+     * @param map   The game map.
+     * @param start The tile units of the start point.
+     * @param end   The tile units of the end point.
+     * @return The cost. DEAD_END if there is no path.
+     */
+    public static synchronized int CalculateCost(Map map, Point start, Point end) {
+        if (start.equals(end)) {
+            return 0;
         }
-
-        private void setMapTile(Point value) {
-            privateMapTile = value;
+        Bind(map);
+        int startNode = graph.NodeAt(start);
+        int endNode = graph.NodeAt(end);
+        if ((startNode < 0) || (endNode < 0)) {
+            return DEAD_END;
         }
-
-        /**
-         * The neighboring tiles (up to 4). If 0 then this point has been added as a neighbor but is in the
-         * notEvaluated List because it has not yet been tried.
-         */
-        private java.util.ArrayList<TrailPoint> privateNeighbors;
-
-        public final java.util.ArrayList<TrailPoint> getNeighbors() {
-            return privateNeighbors;
+        RouteCache.Route route = routes.get(RouteCache.Key(start.y * width + start.x, end.y * width + end.x));
+        if (route != null) {
+            return route.cost;
         }
+        int cost = corridors.Search(startNode, endNode);
+        return cost == CorridorGraph.NO_PATH ? DEAD_END : cost;
+    }
 
-        private void setNeighbors(java.util.ArrayList<TrailPoint> value) {
-            privateNeighbors = value;
+    /**
+     * Calculate the path from start to each of the targets. This is one search that stops once every target has been
+     * reached, so it is much cheaper than calling CalculatePath once per target.
+     *
+     * @param map     The game map.
+     * @param start   The tile units of the start point (inclusive).
+     * @param targets The tile units of the end points (inclusive).
+     * @param costs   Set to the cost to each target, DEAD_END if there is no path. Must be at least targets.size() long.
+     * @return The path to each target, in the same order as targets. Empty if there is no path.
+     */
+    public static synchronized java.util.ArrayList<ArrayList<Point>> CalculatePaths(Map map, Point start, java.util.List<Point> targets, int[] costs) {
+
+        java.util.ArrayList<ArrayList<Point>> result = new java.util.ArrayList<ArrayList<Point>>(targets.size());
+        Bind(map);
+        int startNode = graph.NodeAt(start);
+
+        NextGeneration();
+        int numTargets = 0;
+        for (Point pt : targets) {
+            int node = graph.NodeAt(pt);
+            if ((startNode >= 0) && (node >= 0) && (target[node] != generation)) {
+                target[node] = generation;
+                numTargets++;
+            }
         }
-
-        /**
-         * Estimate of the distance to the end. Direct line if have no neighbors. Best neighbor.Distance + 1
-         * if have neighbors. This value is bad if it's along a trail that failed.
-         */
-        private int privateDistance;
-
-        public final int getDistance() {
-            return privateDistance;
+        if (numTargets > 0) {
+            // no single end to aim at so no heuristic - this is Dijkstra.
+            Search(startNode, numTargets, -1, -1);
         }
 
-        private void setDistance(int value) {
-            privateDistance = value;
+        for (int ind = 0; ind < targets.size(); ind++) {
+            Point pt = targets.get(ind);
+            int node = graph.NodeAt(pt);
+            if (pt.equals(start) && (node >= 0)) {
+                costs[ind] = 0;
+                result.add(new ArrayList<Point>(java.util.Arrays.asList(new Point[]{start})));
+            } else if ((startNode >= 0) && (node >= 0) && (reached[node] == generation)) {
+                costs[ind] = gCost[reachedState[node]];
+                result.add(BuildPath(reachedState[node]));
+            } else {
+                costs[ind] = DEAD_END;
+                result.add(new ArrayList<Point>());
+            }
         }
+        return result;
+    }
 
-        /**
-         * The number of steps from the start to this tile.
-         */
-        private int privateCost;
+    /**
+     * The road graph of a map - the one the searches use.
+     */
+    public static synchronized RoadGraph getRoadGraph(Map map) {
+        Bind(map);
+        return graph;
+    }
 
-        public final int getCost() {
-            return privateCost;
+    /**
+     * Search a map on a road graph already built for it (one read from ArtifactCache), rather than building one.
+     *
+     * @param map   The game map.
+     * @param built The map's road graph.
+     */
+    public static synchronized void UseRoadGraph(Map map, RoadGraph built) {
+        if (map != lastMap) {
+            Bind(map, built);
         }
+    }
 
-        public final void setCost(int value) {
-            privateCost = value;
+    /**
+     * Start a new search. Everything in the workspace from previous searches becomes invalid.
+     */
+    private static void NextGeneration() {
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(target, 0);
+            Arrays.fill(reached, 0);
+            generation = 1;
         }
+    }
 
-        public TrailPoint(Point pt, Point end, int cost) {
-            setMapTile(pt);
-            setNeighbors(new java.util.ArrayList<TrailPoint>());
-            //setDistance(Math.abs(getMapTile().x - end.x) + Math.abs(getMapTile().y - end.y));
-            setCost(cost);
+    /**
+     * Run A* from startNode (entered with any heading) until numTargets of the nodes marked in target have been
+     * reached. Call NextGeneration and mark the targets before calling this.
+     *
+     * @param endX The heuristic aims at this tile. -1 for no heuristic.
+     * @return The number of targets reached.
+     */
+    private static int Search(int startNode, int numTargets, int endX, int endY) {
+        int gen = generation;
+        boolean heuristic = endX >= 0;
+        int found = 0;
+        open.clear();
+
+        int startPriority = heuristic ? RoadGraph.STEP_COST * (Math.abs(graph.X(startNode) - endX) + Math.abs(graph.Y(startNode) - endY)) : 0;
+        for (int heading = 0; heading < 4; heading++) {
+            int state = RoadGraph.State(startNode, heading);
+            seen[state] = gen;
+            gCost[state] = 0;
+            parent[state] = -1;
+            open.push(startPriority, state);
         }
 
-        public final void RecalculateDistance(Point mapTileCaller, int remainingSteps) {
-
-            TRAP.trap(getDistance() == 0);
-            // if no neighbors then this is in notEvaluated and so can't recalculate.
-            if (getNeighbors().isEmpty()) {
-                return;
+        while (!open.isEmpty()) {
+            int state = open.pop();
+            if (closed[state] == gen) {
+                // stale entry, we already found a cheaper way here
+                continue;
             }
-
-            int shortestDistance = 666;
-            // if just 1 neighbor, then it's a dead end
-            if (getNeighbors().size() == 1) {
-                shortestDistance = DEAD_END;
-            } else {
-                for (TrailPoint neighborOn : getNeighbors()) {
-                    if (shortestDistance > neighborOn.getDistance())
-                        shortestDistance = neighborOn.getDistance();
-                }
-                // it's 1+ lowest neighbor value (unless a dead end)
-                if (shortestDistance != DEAD_END) {
-                    shortestDistance++;
+            closed[state] = gen;
+            int node = RoadGraph.NodeOfState(state);
+            if ((target[node] == gen) && (reached[node] != gen)) {
+                reached[node] = gen;
+                reachedState[node] = state;
+                if (++found == numTargets) {
+                    return found;
                 }
             }
 
-            // no change, no need to recalc neighbors
-            if (shortestDistance == getDistance()) {
-                return;
-            }
-
-            // new value (could be longer or shorter)
-            setDistance(shortestDistance);
-
-            // if gone to far, no more recalculate
-            if (remainingSteps-- < 0) {
-                return;
+            int base = gCost[state];
+            for (int edge = graph.FirstEdge(state), end = graph.EndEdge(state); edge < end; edge++) {
+                int next = graph.EdgeTarget(edge);
+                if (closed[next] == gen) {
+                    continue;
+                }
+                int cost = base + graph.EdgeCost(edge);
+                if ((seen[next] == gen) && (gCost[next] <= cost)) {
+                    continue;
+                }
+                seen[next] = gen;
+                gCost[next] = cost;
+                parent[next] = state;
+                if (heuristic) {
+                    int nextNode = RoadGraph.NodeOfState(next);
+                    open.push(cost + RoadGraph.STEP_COST * (Math.abs(graph.X(nextNode) - endX) + Math.abs(graph.Y(nextNode) - endY)), next);
+                } else {
+                    open.push(cost, next);
+                }
             }
+        }
+        return found;
+    }
 
-            //  Need to tell our neighbors - except the one that called us
-//C# TO JAVA CONVERTER TODO TASK: There is no Java equivalent to LINQ queries:
-
+    /**
+     * Walk the parent links back from a state reached in the last search.
+     *
+     * @return The path from the search start to the state's tile (both inclusive).
+     */
+    private static ArrayList<Point> BuildPath(int endState) {
+        ArrayList<Point> path = new ArrayList<Point>();
+        for (int state = endState; state != -1; state = parent[state]) {
+            int node = RoadGraph.NodeOfState(state);
+            path.add(new Point(graph.X(node), graph.Y(node)));
+        }
+        java.util.Collections.reverse(path);
+        return path;
+    }
 
-            for (TrailPoint neighborOn : getNeighbors()) {
-                if (neighborOn.getMapTile() != mapTileCaller)
-                    neighborOn.RecalculateDistance(getMapTile(), remainingSteps);
-            }
+    /**
+     * The cache of routes returned by CalculatePath.
+     */
+    public static RouteCache getRouteCache() {
+        return routes;
+    }
 
-            // and we re-calc again because that could have changed our neighbor's values
-            for (TrailPoint neighborOn : getNeighbors()) {
-                if (shortestDistance > neighborOn.getDistance())
-                    shortestDistance = neighborOn.getDistance();
-            }
-            // it's 1+ lowest neighbor value (unless a dead end)
-            if (shortestDistance != DEAD_END) {
-                shortestDistance++;
-            }
-            setDistance(shortestDistance);
+    /**
+     * Compile the map's road graph and size the search workspace to it. Does nothing if it is the map of the previous
+     * search. The route cache is kept if this is a new Map object for the same roads (a re-sent setup) and cleared if
+     * the roads are different.
+     */
+    private static void Bind(Map map) {
+        if (map == lastMap) {
+            return;
         }
+        Bind(map, new RoadGraph(map));
+    }
 
-        @Override
-        public String toString() {
-            return String.format("Map=%1$s, Cost=%2$s, Distance=%3$s, Neighbors=%4$s", getMapTile(), getCost(), getDistance(), getNeighbors().size());
+    private static void Bind(Map map, RoadGraph built) {
+        graph = built;
+        corridors = new CorridorGraph(graph);
+        width = graph.getWidth();
+        int numStates = graph.getNumStates();
+        gCost = new int[numStates];
+        parent = new int[numStates];
+        seen = new int[numStates];
+        closed = new int[numStates];
+        target = new int[graph.getNumNodes()];
+        reached = new int[graph.getNumNodes()];
+        reachedState = new int[graph.getNumNodes()];
+        generation = 0;
+        open = new TileHeap(numStates);
+        lastMap = map;
+
+        if (graph.getSignature() != lastMapSignature) {
+            routes.clear();
+            lastMapSignature = graph.getSignature();
         }
     }
-}
\ No newline at end of file
+}
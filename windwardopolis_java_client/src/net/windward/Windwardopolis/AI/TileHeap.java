@@ -0,0 +1,81 @@
+package net.windward.Windwardopolis.AI;
+
+/**
+ * A binary min-heap of tile indices ordered by an int priority. Each entry is packed into a single long
+ * (priority in the high 32 bits, tile index in the low 32 bits) so the heap is one primitive array and a
+ * push or pop never allocates once the array has grown to fit the largest search.
+ *
+ * There is no decrease-key. A tile whose cost improves is pushed again and the stale entry is skipped by the
+ * caller when it is popped (the caller already tracks which tiles are closed).
+ */
+final class TileHeap {
+
+    private long[] heap;
+    private int size;
+
+    TileHeap(int capacity) {
+        heap = new long[Math.max(capacity, 16)];
+    }
+
+    final boolean isEmpty() {
+        return size == 0;
+    }
+
+    final void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a tile to the heap.
+     *
+     * @param priority The priority (lowest pops first). Must be >= 0.
+     * @param tile     The tile index.
+     */
+    final void push(int priority, int tile) {
+        if (size == heap.length) {
+            heap = java.util.Arrays.copyOf(heap, heap.length * 2);
+        }
+        long entry = ((long) priority << 32) | (tile & 0xFFFFFFFFL);
+        int pos = size++;
+        while (pos > 0) {
+            int parentPos = (pos - 1) >>> 1;
+            long parentEntry = heap[parentPos];
+            if (parentEntry <= entry) {
+                break;
+            }
+            heap[pos] = parentEntry;
+            pos = parentPos;
+        }
+        heap[pos] = entry;
+    }
+
+    /**
+     * Remove the lowest priority entry.
+     *
+     * @return The tile index of the removed entry.
+     */
+    final int pop() {
+        long top = heap[0];
+        long last = heap[--size];
+        int pos = 0;
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            long childEntry = heap[child];
+            int right = child + 1;
+            if (right < size && heap[right] < childEntry) {
+                child = right;
+                childEntry = heap[right];
+            }
+            if (last <= childEntry) {
+                break;
+            }
+            heap[pos] = childEntry;
+            pos = child;
+        }
+        if (size > 0) {
+            heap[pos] = last;
+        }
+        return (int) top;
+    }
+}
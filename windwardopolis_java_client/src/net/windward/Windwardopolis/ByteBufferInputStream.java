@@ -0,0 +1,52 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a ByteBuffer as an InputStream so a message can be parsed straight from the socket buffer.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer Read from position() to limit(). Reading moves the position.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read()
+	{
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length)
+	{
+		if (length == 0)
+			return 0;
+		if (! buffer.hasRemaining())
+			return -1;
+		length = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, length);
+		return length;
+	}
+
+	@Override
+	public long skip(long n)
+	{
+		int skip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skip);
+		return skip;
+	}
+
+	@Override
+	public int available()
+	{
+		return buffer.remaining();
+	}
+}
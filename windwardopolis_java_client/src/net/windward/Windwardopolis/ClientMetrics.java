@@ -0,0 +1,275 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import net.windward.Windwardopolis.AI.ArtifactCache;
+import net.windward.Windwardopolis.AI.RouteCache;
+import net.windward.Windwardopolis.AI.SimpleAStar;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of a turn goes, and counts of what came and went. There is one set for the client (get()), recorded
+ * from wherever the work is done. The latency of each stage is a LatencyHistogram:
+ *
+ *   decode - socket thread: splitting a read into messages, reading the root and queueing the message.
+ *   parse  - decision thread: XML to the api objects. The setup Document and the objects built from it, or a status
+ *            message pulled straight into the Player/Passenger objects.
+ *   update - the A.I.'s state derived from the api objects: the game snapshot, bus stop flow fields at setup, rival
+ *            arrivals on a status.
+ *   plan   - ranking the passengers to pick up, including the look-ahead.
+ *   path   - the path to the next stop.
+ *   send   - encoding the orders and writing them to the socket.
+ *   turn   - a whole message on the decision thread, parse to send.
+ *
+ * All are shown over JMX (Register) under net.windward.Windwardopolis, and Dump prints them all every so often.
+ */
+public class ClientMetrics implements ClientMetricsMBean
+{
+	/**
+	 * The JMX domain everything is registered under.
+	 */
+	public static final String DOMAIN = "net.windward.Windwardopolis";
+
+	/**
+	 * Seconds between printing a snapshot. Set with -Dwindward.metricsDumpSec=N, 0 for never.
+	 */
+	public static final int DUMP_SECONDS = Integer.getInteger("windward.metricsDumpSec", 60);
+
+	private static final ClientMetrics metrics = new ClientMetrics();
+
+	private final LatencyHistogram decode = new LatencyHistogram("decode");
+	private final LatencyHistogram parse = new LatencyHistogram("parse");
+	private final LatencyHistogram update = new LatencyHistogram("update");
+	private final LatencyHistogram plan = new LatencyHistogram("plan");
+	private final LatencyHistogram path = new LatencyHistogram("path");
+	private final LatencyHistogram send = new LatencyHistogram("send");
+	private final LatencyHistogram turn = new LatencyHistogram("turn");
+	private final LatencyHistogram[] histograms = {decode, parse, update, plan, path, send, turn};
+
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong messagesCoalesced = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong ordersSent = new AtomicLong();
+	private final AtomicLong turnsOverBudget = new AtomicLong();
+
+	private boolean registered;
+	private Timer dumpTimer;
+
+	private ClientMetrics()
+	{
+	}
+
+	/**
+	 * The client's metrics.
+	 */
+	public static ClientMetrics get()
+	{
+		return metrics;
+	}
+
+	public final LatencyHistogram getDecode()
+	{
+		return decode;
+	}
+
+	public final LatencyHistogram getParse()
+	{
+		return parse;
+	}
+
+	public final LatencyHistogram getUpdate()
+	{
+		return update;
+	}
+
+	public final LatencyHistogram getPlan()
+	{
+		return plan;
+	}
+
+	public final LatencyHistogram getPath()
+	{
+		return path;
+	}
+
+	public final LatencyHistogram getSend()
+	{
+		return send;
+	}
+
+	public final LatencyHistogram getTurn()
+	{
+		return turn;
+	}
+
+	/**
+	 * A message was read from the socket.
+	 */
+	public final void MessageReceived()
+	{
+		messagesReceived.incrementAndGet();
+	}
+
+	/**
+	 * A status message was dropped because a newer one replaced it before it was processed.
+	 */
+	public final void MessageCoalesced()
+	{
+		messagesCoalesced.incrementAndGet();
+	}
+
+	public final void BytesIn(long bytes)
+	{
+		bytesIn.addAndGet(bytes);
+	}
+
+	public final void BytesOut(long bytes)
+	{
+		bytesOut.addAndGet(bytes);
+	}
+
+	public final void OrdersSent()
+	{
+		ordersSent.incrementAndGet();
+	}
+
+	public final void TurnOverBudget()
+	{
+		turnsOverBudget.incrementAndGet();
+	}
+
+	public final long getMessagesReceived()
+	{
+		return messagesReceived.get();
+	}
+
+	public final long getMessagesCoalesced()
+	{
+		return messagesCoalesced.get();
+	}
+
+	public final long getBytesIn()
+	{
+		return bytesIn.get();
+	}
+
+	public final long getBytesOut()
+	{
+		return bytesOut.get();
+	}
+
+	public final long getOrdersSent()
+	{
+		return ordersSent.get();
+	}
+
+	public final long getTurnsOverBudget()
+	{
+		return turnsOverBudget.get();
+	}
+
+	public final long getRouteCacheHits()
+	{
+		return SimpleAStar.getRouteCache().getHits();
+	}
+
+	public final long getRouteCacheMisses()
+	{
+		return SimpleAStar.getRouteCache().getMisses();
+	}
+
+	/**
+	 * The fraction of route lookups that were cached, 0 .. 1. 0 if there have been none.
+	 */
+	public final double getRouteCacheHitRate()
+	{
+		RouteCache cache = SimpleAStar.getRouteCache();
+		long lookups = cache.getHits() + cache.getMisses();
+		return lookups == 0 ? 0 : cache.getHits() / (double) lookups;
+	}
+
+	public final long getArtifactCacheHits()
+	{
+		return ArtifactCache.getHits();
+	}
+
+	public final long getArtifactCacheMisses()
+	{
+		return ArtifactCache.getMisses();
+	}
+
+	/**
+	 * Everything, as lines of text: the counters and then a line per histogram.
+	 */
+	public final String getSnapshot()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("messages in=%d coalesced=%d, orders sent=%d, bytes in=%d out=%d, turns over budget=%d, route cache hit rate=%.3f, map cache hits=%d misses=%d%n",
+				getMessagesReceived(), getMessagesCoalesced(), getOrdersSent(), getBytesIn(), getBytesOut(), getTurnsOverBudget(), getRouteCacheHitRate(),
+				getArtifactCacheHits(), getArtifactCacheMisses()));
+		for (LatencyHistogram histogram : histograms)
+			buf.append(histogram).append(String.format("%n"));
+		return buf.toString();
+	}
+
+	/**
+	 * Zero every counter and histogram (the route and map caches keep their own counts).
+	 */
+	public final void Reset()
+	{
+		for (LatencyHistogram histogram : histograms)
+			histogram.Reset();
+		messagesReceived.set(0);
+		messagesCoalesced.set(0);
+		bytesIn.set(0);
+		bytesOut.set(0);
+		ordersSent.set(0);
+		turnsOverBudget.set(0);
+	}
+
+	/**
+	 * Register this and each histogram with the platform MBean server. Only the first call does anything. A failure
+	 * is printed and otherwise ignored - metrics are not worth stopping a game for.
+	 */
+	public final synchronized void Register()
+	{
+		if (registered)
+			return;
+		registered = true;
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this, new ObjectName(DOMAIN + ":type=ClientMetrics"));
+			for (LatencyHistogram histogram : histograms)
+				server.registerMBean(histogram, new ObjectName(DOMAIN + ":type=Latency,name=" + histogram.getName()));
+		}
+		catch (JMException ex)
+		{
+			System.out.println("Could not register the client metrics with JMX: " + ex);
+		}
+	}
+
+	/**
+	 * Print the snapshot to System.out every DUMP_SECONDS, on a daemon thread. Only the first call does anything.
+	 */
+	public final synchronized void StartDump()
+	{
+		if ((dumpTimer != null) || (DUMP_SECONDS <= 0))
+			return;
+		dumpTimer = new Timer("metrics dump", true);
+		long period = DUMP_SECONDS * 1000L;
+		dumpTimer.schedule(new TimerTask()
+		{
+			public void run()
+			{
+				System.out.print(getSnapshot());
+			}
+		}, period, period);
+	}
+}
@@ -0,0 +1,33 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+/**
+ * What JMX shows of ClientMetrics. The latency histograms are registered as MBeans of their own.
+ */
+public interface ClientMetricsMBean
+{
+	long getMessagesReceived();
+
+	long getMessagesCoalesced();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getOrdersSent();
+
+	long getTurnsOverBudget();
+
+	long getRouteCacheHits();
+
+	long getRouteCacheMisses();
+
+	double getRouteCacheHitRate();
+
+	long getArtifactCacheHits();
+
+	long getArtifactCacheMisses();
+
+	String getSnapshot();
+
+	void Reset();
+}
@@ -0,0 +1,133 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits the bytes read from the server into messages. Each message on the wire is a 4 byte little-endian length
+ * followed by that many bytes of UTF-8 XML.
+ *
+ * The socket is read straight into one reusable direct buffer and each complete message is handed out as a slice
+ * of that buffer - there is no copy into an intermediate array. A slice is only valid until the next call to read()
+ * or nextFrame().
+ *
+ * The buffer starts at a power of two and doubles when a message does not fit, up to the maximum message size. A
+ * length over the maximum is treated as a corrupt stream.
+ */
+public class FrameDecoder
+{
+	private static final int LENGTH_SIZE = 4;
+
+	private final int maxFrameSize;
+	// in write mode - position() is the end of the data read from the socket.
+	private ByteBuffer buffer;
+	// the start of the data not yet handed out as a message.
+	private int readIndex;
+
+	/**
+	 * @param capacity     The starting buffer size. Rounded up to a power of two.
+	 * @param maxFrameSize The largest message accepted.
+	 */
+	public FrameDecoder(int capacity, int maxFrameSize)
+	{
+		this.maxFrameSize = maxFrameSize;
+		buffer = newBuffer(powerOfTwo(capacity));
+	}
+
+	public final int getCapacity()
+	{
+		return buffer.capacity();
+	}
+
+	/**
+	 * Read whatever is available from the channel (blocks until there is at least 1 byte).
+	 *
+	 * @param channel The channel to read from.
+	 * @return The number of bytes read, -1 on end of stream.
+	 */
+	public final int read(ReadableByteChannel channel) throws IOException
+	{
+		if (readIndex == buffer.position())
+		{
+			// everything handed out - start over at the beginning.
+			buffer.clear();
+			readIndex = 0;
+		}
+		else if (! buffer.hasRemaining())
+			makeRoom(0);
+
+		return channel.read(buffer);
+	}
+
+	/**
+	 * The next complete message.
+	 *
+	 * @return The message (without the length) or null if a complete message has not been read yet.
+	 */
+	public final ByteBuffer nextFrame()
+	{
+		while (true)
+		{
+			int available = buffer.position() - readIndex;
+			if (available < LENGTH_SIZE)
+				return null;
+
+			int length = buffer.getInt(readIndex);
+			if ((length < 0) || (length > maxFrameSize))
+				throw new IllegalStateException("message length " + length + " is over the maximum of " + maxFrameSize);
+			if (length == 0)
+			{
+				// empty message - nothing to hand out.
+				TRAP.trap();
+				readIndex += LENGTH_SIZE;
+				continue;
+			}
+			if (available - LENGTH_SIZE < length)
+			{
+				// make sure the rest of the message will fit when it arrives.
+				if (readIndex + LENGTH_SIZE + length > buffer.capacity())
+					makeRoom(LENGTH_SIZE + length);
+				return null;
+			}
+
+			ByteBuffer frame = buffer.duplicate();
+			frame.limit(readIndex + LENGTH_SIZE + length);
+			frame.position(readIndex + LENGTH_SIZE);
+			readIndex += LENGTH_SIZE + length;
+			return frame.slice();
+		}
+	}
+
+	/**
+	 * Move the unread data to the start of the buffer, growing the buffer if it cannot hold a message of this length.
+	 */
+	private void makeRoom(int messageLength)
+	{
+		buffer.limit(buffer.position());
+		buffer.position(readIndex);
+		if (messageLength > buffer.capacity())
+		{
+			TRAP.trap();
+			ByteBuffer bigger = newBuffer(powerOfTwo(messageLength));
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		else
+			buffer.compact();
+		readIndex = 0;
+	}
+
+	private static int powerOfTwo(int value)
+	{
+		return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+	}
+
+	private static ByteBuffer newBuffer(int capacity)
+	{
+		ByteBuffer buf = ByteBuffer.allocateDirect(capacity);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+}
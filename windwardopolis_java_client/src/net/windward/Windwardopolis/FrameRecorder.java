@@ -0,0 +1,105 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes every message received from the server to an append-only log so a game can be replayed (FrameReplayer).
+ * Recording is off unless -Dwindward.record=file is set. The file is appended to, so a re-connect (or another game)
+ * continues the same log.
+ *
+ * The log is the MAGIC header, then for each message: an 8 byte timestamp (nanoseconds since 1970), a 4 byte length
+ * and the message. All numbers are little-endian like the wire protocol.
+ */
+public class FrameRecorder
+{
+	public static final byte[] MAGIC = {'W', 'W', 'F', 'R', 'A', 'M', 'E', '1'};
+
+	/**
+	 * The size of the timestamp and length before each message.
+	 */
+	public static final int RECORD_HEADER_SIZE = 12;
+
+	private static FrameRecorder fromProperty;
+	private static boolean fromPropertyRead;
+
+	private final FileChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer[] record = new ByteBuffer[2];
+	// timestamps are wall clock at open plus nanoTime since - so they are both comparable between runs and monotonic.
+	private final long epochNanos;
+	private final long startNanos;
+	private boolean failed;
+
+	public FrameRecorder(File file) throws IOException
+	{
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		if (channel.size() == 0)
+			channel.write(ByteBuffer.wrap(MAGIC));
+		channel.position(channel.size());
+		epochNanos = System.currentTimeMillis() * 1000000L;
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * The recorder for -Dwindward.record. null if not recording.
+	 */
+	public static synchronized FrameRecorder FromProperty()
+	{
+		if (!fromPropertyRead)
+		{
+			fromPropertyRead = true;
+			String filename = System.getProperty("windward.record");
+			if (filename != null)
+			{
+				try
+				{
+					fromProperty = new FrameRecorder(new File(filename));
+					System.out.println("recording messages to " + filename);
+				}
+				catch (IOException ex)
+				{
+					System.out.println("cannot record to " + filename + ": " + ex.getMessage());
+				}
+			}
+		}
+		return fromProperty;
+	}
+
+	/**
+	 * Append a message. A write error turns recording off - it never stops the game.
+	 *
+	 * @param message The message (without its length). Its position is not changed.
+	 */
+	public final synchronized void Record(ByteBuffer message)
+	{
+		if (failed)
+			return;
+		header.clear();
+		header.putLong(epochNanos + (System.nanoTime() - startNanos));
+		header.putInt(message.remaining());
+		header.flip();
+		record[0] = header;
+		record[1] = message.duplicate();
+		try
+		{
+			while (record[1].hasRemaining())
+				channel.write(record);
+		}
+		catch (IOException ex)
+		{
+			failed = true;
+			System.out.println("recording stopped: " + ex.getMessage());
+		}
+		record[1] = null;
+	}
+
+	public final synchronized void Close() throws IOException
+	{
+		channel.close();
+	}
+}
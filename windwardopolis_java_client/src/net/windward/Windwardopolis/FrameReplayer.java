@@ -0,0 +1,191 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import net.windward.Windwardopolis.AI.MyPlayerBrain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plays a log written by FrameRecorder into a new A.I. with no server.
+ *
+ *   java net.windward.Windwardopolis.FrameReplayer log [fast|paced]
+ *
+ * fast (the default) passes each message straight to Framework.ProcessMessage, one after another, and times each
+ * one. This is deterministic - the same log always makes the same decisions - so it is the one to use for performance
+ * regression runs and for profiling a slow turn. The slowest messages are listed at the end.
+ *
+ * paced passes each message to Framework.IncomingMessage at the time it was received in the original game, so the
+ * decision thread sees the same timing (and coalescing) it did live.
+ */
+public class FrameReplayer
+{
+	/**
+	 * A message from the log.
+	 */
+	public static final class Frame
+	{
+		private final int index;
+		private final long timestamp;
+		private final ByteBuffer message;
+
+		private Frame(int index, long timestamp, ByteBuffer message)
+		{
+			this.index = index;
+			this.timestamp = timestamp;
+			this.message = message;
+		}
+
+		/**
+		 * The position of this message in the log, from 0.
+		 */
+		public int getIndex()
+		{
+			return index;
+		}
+
+		/**
+		 * When it was received, in nanoseconds since 1970.
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+
+		/**
+		 * The message. Use duplicate() if it will be read more than once.
+		 */
+		public ByteBuffer getMessage()
+		{
+			return message.duplicate();
+		}
+	}
+
+	// the number of slowest messages listed.
+	private static final int NUM_SLOWEST = 10;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("usage: FrameReplayer log [fast|paced]");
+			return;
+		}
+		List<Frame> frames = Read(new File(args[0]));
+		boolean paced = (args.length > 1) && args[1].equals("paced");
+
+		Framework framework = new Framework(new MyPlayerBrain(null));
+		long start = System.nanoTime();
+		if (paced)
+			ReplayPaced(framework, frames);
+		else
+			ReplayFast(framework, frames);
+		System.out.println(String.format("replayed %1$s messages in %2$s ms", frames.size(), (System.nanoTime() - start) / 1000000));
+		System.out.print(ClientMetrics.get().getSnapshot());
+	}
+
+	/**
+	 * Read a log.
+	 */
+	public static List<Frame> Read(File file) throws IOException
+	{
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try
+		{
+			ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			byte[] magic = new byte[FrameRecorder.MAGIC.length];
+			if (log.remaining() < magic.length)
+				throw new IOException(file + " is not a message log");
+			log.get(magic);
+			if (!Arrays.equals(magic, FrameRecorder.MAGIC))
+				throw new IOException(file + " is not a message log");
+
+			ArrayList<Frame> frames = new ArrayList<Frame>();
+			while (log.remaining() >= FrameRecorder.RECORD_HEADER_SIZE)
+			{
+				long timestamp = log.getLong();
+				int length = log.getInt();
+				if ((length < 0) || (length > log.remaining()))
+				{
+					// the end of a log cut off by a crash.
+					System.out.println("log truncated after message " + frames.size());
+					break;
+				}
+				ByteBuffer message = log.slice();
+				message.limit(length);
+				log.position(log.position() + length);
+				frames.add(new Frame(frames.size(), timestamp, message));
+			}
+			return frames;
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static void ReplayFast(Framework framework, List<Frame> frames)
+	{
+		final long[] nanos = new long[frames.size()];
+		for (Frame frame : frames)
+		{
+			long start = System.nanoTime();
+			framework.ProcessMessage(frame.getMessage());
+			nanos[frame.getIndex()] = System.nanoTime() - start;
+		}
+
+		ArrayList<Frame> slowest = new ArrayList<Frame>(frames);
+		Collections.sort(slowest, new Comparator<Frame>() {
+			public int compare(Frame f1, Frame f2)
+			{
+				return nanos[f2.getIndex()] < nanos[f1.getIndex()] ? -1 : (nanos[f2.getIndex()] == nanos[f1.getIndex()] ? 0 : 1);
+			}
+		});
+		System.out.println("slowest messages:");
+		for (Frame frame : slowest.subList(0, Math.min(NUM_SLOWEST, slowest.size())))
+			System.out.println(String.format("  #%1$s  %2$.3f ms  %3$s", frame.getIndex(), nanos[frame.getIndex()] / 1e6, Describe(frame)));
+	}
+
+	private static void ReplayPaced(Framework framework, List<Frame> frames) throws InterruptedException
+	{
+		MessagePipeline pipeline = framework.StartPipeline();
+		long startNanos = System.nanoTime();
+		long firstTimestamp = frames.isEmpty() ? 0 : frames.get(0).getTimestamp();
+		for (Frame frame : frames)
+		{
+			long wait = (frame.getTimestamp() - firstTimestamp) - (System.nanoTime() - startNanos);
+			if (wait > 0)
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			framework.IncomingMessage(frame.getMessage());
+		}
+
+		// let the decision thread finish.
+		while (pipeline.getNumProcessed() + pipeline.getNumCoalesced() < pipeline.getNumPosted())
+			Thread.sleep(10);
+		System.out.println(String.format("%1$s messages coalesced", pipeline.getNumCoalesced()));
+	}
+
+	// the start of the message - enough to see the root element and status.
+	private static String Describe(Frame frame)
+	{
+		ByteBuffer message = frame.getMessage();
+		byte[] start = new byte[Math.min(80, message.remaining())];
+		message.get(start);
+		try
+		{
+			return new String(start, "UTF-8").replaceAll("\\s+", " ");
+		}
+		catch (java.io.UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -2,32 +2,55 @@ package net.windward.Windwardopolis;
 
 import net.windward.Windwardopolis.AI.MyPlayerBrain;
 import net.windward.Windwardopolis.AI.PlayerAIBase;
-import net.windward.Windwardopolis.api.Company;
-import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.GameIndex;
 import net.windward.Windwardopolis.api.Passenger;
 import net.windward.Windwardopolis.api.Player;
 import org.dom4j.*;
 import org.dom4j.io.SAXReader;
 import sun.misc.BASE64Encoder;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.awt.*;
 // Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
 
 
-public class Framework implements IPlayerCallback {
-    private TcpClient tcpClient;
+public class Framework implements IPlayerCallback, MessagePipeline.MessageHandler {
+    private volatile TcpClient tcpClient;
     private MyPlayerBrain brain;
     private String ipAddress = "127.0.0.1";
 
     private String myGuid;
 
-    // this is used to make sure we don't have multiple threads updating the Player/Passenger lists, sending
-    // back multiple orders, etc. This is a lousy way to handle this - but it keeps the example simple and
-    // leaves room for easy improvement.
-    private int signal;
+    // resolves the GUIDs/names in status messages to our Player/Passenger/Company objects. Built on setup.
+    private GameIndex gameIndex;
+
+    // the socket thread queues each message here and a single decision thread processes them in order. That's
+    // what makes sure we don't have multiple threads updating the Player/Passenger lists, sending back multiple
+    // orders, etc.
+    private final MessagePipeline pipeline;
+
+    // writes our orders as a framed message, ready to send.
+    private final OrderEncoder orderEncoder = new OrderEncoder();
+
+    private static final ClientMetrics metrics = ClientMetrics.get();
+
+    // a turn longer than this is printed as a warning. It is not the planner's budget (brain.getTurnBudgetMillis) -
+    // going over that is only counted in the metrics.
+    private static final long SLOW_TURN_MILLIS = 800;
+
+    // status and setup messages are read with a pull parser straight into the api objects (SetupReader for setup).
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    }
 
     //private static final log4net.ILog log = log4net.LogManager.GetLogger(Framework.class);
 
@@ -49,6 +72,30 @@ public class Framework implements IPlayerCallback {
         String msg = String.format("Connecting to server %1$s for user: %2$s", ipAddress, brain.getName());
 
         System.out.println(msg);
+        pipeline = new MessagePipeline(this);
+        pipeline.Start();
+        metrics.Register();
+        metrics.StartDump();
+    }
+
+    /**
+     * A framework with no server connection, for feeding it messages directly (benchmarks, replaying a game). Orders
+     * are built but not sent. Either call ProcessMessage on a single thread, or call StartPipeline and pass messages to
+     * IncomingMessage as the socket thread would.
+     *
+     * @param brain The A.I. to pass the messages to.
+     */
+    public Framework(MyPlayerBrain brain) {
+        this.brain = brain;
+        pipeline = new MessagePipeline(this);
+    }
+
+    /**
+     * Start the decision thread of a framework with no server connection.
+     */
+    final MessagePipeline StartPipeline() {
+        pipeline.Start();
+        return pipeline;
     }
 
     private void Run() throws IOException {
@@ -75,140 +122,168 @@ public class Framework implements IPlayerCallback {
         System.out.println(message);
     }
 
-    public final void IncomingMessage(String message) throws DocumentException {
+    /**
+     * Called on the socket thread. Reads just enough of the message to know if it is a status UPDATE (those are full
+     * snapshots and can be coalesced) and queues it for the decision thread.
+     */
+    public final void IncomingMessage(ByteBuffer message) {
         try {
-            long startTime = System.currentTimeMillis();
-            // get the xml - we assume we always get a valid message from the server.
-            SAXReader reader = new SAXReader();
-            Document xml = reader.read(new StringReader(message));
-
-            String rootName = xml.getRootElement().getName();
-
-            if (rootName.equals("setup")) {
-                System.out.println("Received setup message");
-
-                java.util.ArrayList<Player> players = Player.FromXml(xml.getRootElement().element("players"));
-                java.util.ArrayList<Company> companies = Company.FromXml(xml.getRootElement().element("companies"));
-                java.util.ArrayList<Passenger> passengers = Passenger.FromXml(xml.getRootElement().element("passengers"), companies);
-                Map map = new Map(xml.getRootElement().element("map"), companies);
-                myGuid = xml.getRootElement().attribute("my-guid").getValue();
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new ByteBufferInputStream(message.duplicate()));
+            reader.nextTag();
+            boolean update = reader.getLocalName().equals("status") && "UPDATE".equals(reader.getAttributeValue(null, "status"));
+            reader.close();
+            pipeline.Post(message, update);
+        } catch (XMLStreamException ex) {
+            System.out.println(String.format("Error on incoming message. Exception: %1$s", ex));
+            ex.printStackTrace();
+        }
+    }
 
-                Player me2 = null;
-                for(Player plyr : players)
-                {
-                    if (myGuid.equals(plyr.getGuid()))
-                        me2 = plyr;
-                }
+    /**
+     * Called on the decision thread for each message, in the order received.
+     */
+    public final void ProcessMessage(ByteBuffer message) {
+        try {
+            long startTime = System.nanoTime();
+            // get the xml - we assume we always get a valid message from the server. We read the root with the pull
+            // parser and only build a dom4j Document if it is not a status or setup message.
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new ByteBufferInputStream(message.duplicate()));
+            reader.nextTag();
+            String rootName = reader.getLocalName();
+
+            if (rootName.equals("status")) {
+                StatusMessage(reader);
+            } else if (rootName.equals("setup")) {
+                SetupMessage(reader);
+            } else {
+                reader.close();
+                SAXReader saxReader = new SAXReader();
+                Document xml = saxReader.read(new ByteBufferInputStream(message));
 
-                brain.Setup(map, me2, players, companies, passengers, new PlayerAIBase.PlayerOrdersEvent() {
-                    public void invoke(String order, ArrayList<Point> path, ArrayList<Passenger> pickUp) {
-                        PlayerOrdersEvent(order, path, pickUp);
+//ORIGINAL LINE: case "exit":
+                if (rootName.equals("exit")) {
+                    System.out.println("Received exit message");
+                   /* if (log.getIsInfoEnabled()) {
+                        log.Info("Received exit message");
+                    } */
+                    // not connected - nothing to exit (the caller may have more to do).
+                    if (tcpClient != null) {
+                        System.exit(0);
                     }
-                });
-
 
-            }
-//ORIGINAL LINE: case "status":
-            else if (rootName.equals("status")) {
-                // may be here because re-started and got this message before the re-send of setup.
-                if (net.windward.Windwardopolis.DotNetToJavaStringHelper.isNullOrEmpty(myGuid)) {
+                } else {
                     TRAP.trap();
-                    return;
+                   // String msg = String.format("ERROR: bad message (XML) from server - root node %1$s", xml.Root.Name.LocalName);
+                   // log.Warn(msg);
+                   // Trace.WriteLine(msg);
                 }
+            }
 
-                PlayerAIBase.STATUS status = PlayerAIBase.STATUS.valueOf(xml.getRootElement().attribute("status").getValue());
-                Attribute attr = xml.getRootElement().attribute("player-guid");
-                String guid = attr != null ? attr.getValue() : myGuid;
+            long turnNanos = System.nanoTime() - startTime;
+            metrics.getTurn().Record(turnNanos);
+            long turnTime = turnNanos / 1000000;
+            if (turnTime > brain.getTurnBudgetMillis()) {
+                metrics.TurnOverBudget();
+            }
+            if (turnTime > SLOW_TURN_MILLIS) {
+                System.out.println("WARNING - turn took " + turnTime + " ms, planner: " + brain.getLastTurnMetrics());
 
-                synchronized (this) {
-                    if (signal > 0) {
-                        // bad news - we're throwing this message away.
-                        TRAP.trap();
-                        return;
-                    }
-                    signal++;
-                }
+            }
+        } catch (XMLStreamException ex) {
+            System.out.println(String.format("Error on incoming message. Exception: %1$s", ex));
+            ex.printStackTrace();
+        } catch (DocumentException ex) {
+            System.out.println(String.format("Error on incoming message. Exception: %1$s", ex));
+            ex.printStackTrace();
+        } catch (RuntimeException ex) {
+            System.out.println(String.format("Error on incoming message. Exception: %1$s", ex));
+            ex.printStackTrace();
+            //log.Error("Error on incoming message.", ex);
+        }
+    }
 
-                Player.UpdateFromXml(brain.getPlayers(), brain.getPassengers(),xml.getRootElement().element("players"));
-                Passenger.UpdateFromXml(brain.getPassengers(), brain.getCompanies(), xml.getRootElement().element("passengers"));
+    /**
+     * Handle the setup message, reading it as we go.
+     *
+     * @param reader Positioned on the start of the setup element.
+     */
+    private void SetupMessage(XMLStreamReader reader) throws XMLStreamException {
+        System.out.println("Received setup message");
+        long parseStart = System.nanoTime();
+
+        SetupReader setup = new SetupReader(reader);
+        myGuid = setup.getMyGuid();
+        gameIndex = new GameIndex(setup.getPlayers(), setup.getCompanies(), setup.getPassengers());
+        Player me2 = gameIndex.getPlayer(myGuid);
+        metrics.getParse().RecordSince(parseStart);
+
+        brain.Setup(setup.getMap(), me2, setup.getPlayers(), setup.getCompanies(), setup.getPassengers(), new PlayerAIBase.PlayerOrdersEvent() {
+            public void invoke(String order, ArrayList<Point> path, ArrayList<Passenger> pickUp) {
+                PlayerOrdersEvent(order, path, pickUp);
+            }
+        });
+    }
 
+    /**
+     * Handle a status message, reading it as we go.
+     *
+     * @param reader Positioned on the start of the status element.
+     */
+    private void StatusMessage(XMLStreamReader reader) throws XMLStreamException {
+        long parseStart = System.nanoTime();
+        // may be here because re-started and got this message before the re-send of setup.
+        if (net.windward.Windwardopolis.DotNetToJavaStringHelper.isNullOrEmpty(myGuid)) {
+            TRAP.trap();
+            return;
+        }
 
-                // update my path & pick-up.
-                Player plyrStatus = null;
-                for(Player plyr :brain.getPlayers())
-                {
-                    if(guid.equals(plyr.getGuid()))
-                        plyrStatus = plyr;
-                }
-                Element elem = xml.getRootElement().element("path");
-                if (elem != null) {
-                    String[] path = elem.getText().split(";", 0);
-                    plyrStatus.getLimo().getPath().clear();
-                    for (String stepOn : path) {
-                        int pos = stepOn.indexOf(',');
-                        if(pos>0)
-                        plyrStatus.getLimo().getPath().add(new Point(Integer.parseInt(stepOn.substring(0, pos)), Integer.parseInt(stepOn.substring(0, pos))));
-                    }
+        PlayerAIBase.STATUS status = PlayerAIBase.STATUS.valueOf(reader.getAttributeValue(null, "status"));
+        String attr = reader.getAttributeValue(null, "player-guid");
+        String guid = attr != null ? attr : myGuid;
+
+        // update my path & pick-up.
+        Player plyrStatus = gameIndex.getPlayer(guid);
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if (name.equals("players")) {
+                Player.UpdateFromXml(gameIndex, reader);
+            } else if (name.equals("passengers")) {
+                Passenger.UpdateFromXml(gameIndex, reader);
+            } else if (name.equals("path")) {
+                String[] path = reader.getElementText().split(";", 0);
+                plyrStatus.getLimo().getPath().clear();
+                for (String stepOn : path) {
+                    int pos = stepOn.indexOf(',');
+                    if(pos>0)
+                    plyrStatus.getLimo().getPath().add(new Point(Integer.parseInt(stepOn.substring(0, pos)), Integer.parseInt(stepOn.substring(pos + 1))));
                 }
+            } else if (name.equals("pick-up")) {
+                String[] names = reader.getElementText().split(";", 0);
+                plyrStatus.getPickUp().clear();
 
-                elem = xml.getRootElement().element("pick-up");
-                if (elem != null) {
-                    String[] names = elem.getText().split(";", 0);
-                    plyrStatus.getPickUp().clear();
-
-                    ArrayList<Passenger> newPsngrList = new ArrayList<Passenger>();
-
-                    for(String name : names)
-                    {
-                        for(Passenger ps : brain.getPassengers())
-                        {
-                            if(ps.getName().equals(name))
-                            {
-                                newPsngrList.add(ps);
-                            }
-                        }
-
-                    }
-
-                    for (Passenger psngrOn : newPsngrList)
-                    {
+                for(String psngrName : names)
+                {
+                    Passenger psngrOn = gameIndex.getPassenger(psngrName);
+                    if (psngrOn != null)
                         plyrStatus.getPickUp().add(psngrOn);
-                    }
                 }
-
-                // pass in to generate new orders
-                brain.GameStatus(status, plyrStatus, brain.getPlayers(), brain.getPassengers());
-
-                synchronized (this) {
-                    signal--;
-                }
-
-            }
-//ORIGINAL LINE: case "exit":
-            else if (xml.getRootElement().getName().equals("exit")) {
-                System.out.println("Received exit message");
-               /* if (log.getIsInfoEnabled()) {
-                    log.Info("Received exit message");
-                } */
-                System.exit(0);
-
             } else {
                 TRAP.trap();
-               // String msg = String.format("ERROR: bad message (XML) from server - root node %1$s", xml.Root.Name.LocalName);
-               // log.Warn(msg);
-               // Trace.WriteLine(msg);
-            }
-
-            long turnTime = System.currentTimeMillis() - startTime;
-            if (turnTime > 800) {
-                System.out.println("WARNING - turn took " + turnTime / 1000 + " seconds");
-
+                for (int depth = 1; depth > 0; ) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT)
+                        depth++;
+                    else if (event == XMLStreamConstants.END_ELEMENT)
+                        depth--;
+                }
             }
-        } catch (RuntimeException ex) {
-            System.out.println(String.format("Error on incoming message. Exception: %1$s", ex));
-            ex.printStackTrace();
-            //log.Error("Error on incoming message.", ex);
         }
+        reader.close();
+        metrics.getParse().RecordSince(parseStart);
+
+        // pass in to generate new orders
+        brain.GameStatus(status, plyrStatus, brain.getPlayers(), brain.getPassengers());
     }
 
     private void PlayerOrdersEvent(String order, java.util.ArrayList<Point> path, java.util.ArrayList<Passenger> pickUp) {
@@ -222,32 +297,24 @@ public class Framework implements IPlayerCallback {
             brain.getMe().getPickUp().clear();
             brain.getMe().getPickUp().addAll(pickUp);
         }
-        Document xml = DocumentHelper.createDocument();
-        Element elem = DocumentHelper.createElement(order);
-        xml.add(elem);
-        if (path.size() > 0) {
-            StringBuilder buf = new StringBuilder();
-            for (Point ptOn : path) {
-                buf.append(String.valueOf(ptOn.x) + ',' + String.valueOf(ptOn.y) + ';');
+        TcpClient client = tcpClient;
+        long sendStart = System.nanoTime();
+        // the encoder's buffer is reused - one message at a time.
+        synchronized (orderEncoder) {
+            ByteBuffer frame = orderEncoder.Encode(order, path, pickUp);
+            if (client == null) {
+                // not connected - being driven directly.
+                metrics.getSend().RecordSince(sendStart);
+                return;
             }
-            Element newElem = DocumentHelper.createElement("path");
-            newElem.setText(buf.toString());
-            elem.add(newElem);
-        }
-        if (pickUp.size() > 0) {
-            StringBuilder buf = new StringBuilder();
-            for (Passenger psngrOn : pickUp) {
-                buf.append(psngrOn.getName() + ';');
+            try {
+                client.SendFrame(frame);
+                metrics.OrdersSent();
+                metrics.getSend().RecordSince(sendStart);
+            } catch (IOException e) {
+                System.out.println("bad sent orders event");
+                e.printStackTrace();
             }
-            Element newElem = DocumentHelper.createElement("pick-up");
-            newElem.setText(buf.toString());
-            elem.add(newElem);
-        }
-        try {
-            tcpClient.SendMessage(xml.asXML());
-        } catch (IOException e) {
-            System.out.println("bad sent orders event");
-            e.printStackTrace();
         }
     }
 
@@ -1,8 +1,7 @@
 package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
 
-import org.dom4j.DocumentException;
-
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface IPlayerCallback
 {
@@ -14,7 +13,12 @@ public interface IPlayerCallback
 	*/
 	void StatusMessage(String message);
 
-	void IncomingMessage(String message) throws InterruptedException, DocumentException, IOException;
+	/**
+	 Called with each message received from the server.
+
+	 @param message The UTF-8 XML of the message. This is only valid for the length of the call.
+	*/
+	void IncomingMessage(ByteBuffer message) throws InterruptedException, IOException;
 
 	void ConnectionLost(Exception ex) throws IOException, InterruptedException;
 }
\ No newline at end of file
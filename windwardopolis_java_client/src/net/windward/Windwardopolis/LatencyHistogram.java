@@ -0,0 +1,170 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something took, in nanoseconds, in log-linear buckets (as an HDR histogram does): times under 64ns
+ * each get a bucket, and above that each power of 2 is split into 32 buckets. So a percentile is within about 3% of
+ * the real time, whatever the range, and recording is an array increment - no allocation, no lock. It is safe to
+ * record from and read from any thread. A read while others record is not an exact point in time, which is fine for
+ * watching a game.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// a long's top bit is 62, so the largest shift is 62 - SUB_BUCKET_BITS.
+	private static final int NUM_BUCKETS = ((62 - SUB_BUCKET_BITS) + 2) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public LatencyHistogram(String name)
+	{
+		this.name = name;
+	}
+
+	public final String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Record one time.
+	 *
+	 * @param nanos How long it took. Negative times (a clock step) are recorded as 0.
+	 */
+	public final void Record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(BucketIndex(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long prev;
+		while (nanos > (prev = max.get()))
+			if (max.compareAndSet(prev, nanos))
+				break;
+	}
+
+	/**
+	 * Record the time since a System.nanoTime().
+	 */
+	public final void RecordSince(long startNanos)
+	{
+		Record(System.nanoTime() - startNanos);
+	}
+
+	// values under 2 * SUB_BUCKETS are their own bucket. Above that the value is shifted down to
+	// SUB_BUCKETS .. 2*SUB_BUCKETS-1, and each shift has SUB_BUCKETS buckets.
+	static int BucketIndex(long nanos)
+	{
+		if (nanos < 2 * SUB_BUCKETS)
+			return (int) nanos;
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (nanos >>> shift);
+	}
+
+	// the largest value that goes in a bucket.
+	static long BucketTop(int index)
+	{
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * The time (in nanoseconds) at or under which a percent of the recorded times are. It is the top of the bucket it
+	 * falls in, never more than the largest time recorded. 0 if nothing is recorded.
+	 *
+	 * @param percent 0 .. 100.
+	 */
+	public final long Percentile(double percent)
+	{
+		long num = count.get();
+		if (num == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(num * percent / 100.0));
+		long seen = 0;
+		for (int ind = 0; ind < NUM_BUCKETS; ind++)
+		{
+			seen += counts.get(ind);
+			if (seen >= rank)
+				return Math.min(BucketTop(ind), max.get());
+		}
+		return max.get();
+	}
+
+	public final long getCount()
+	{
+		return count.get();
+	}
+
+	public final long getTotalNanos()
+	{
+		return total.get();
+	}
+
+	public final long getMaxNanos()
+	{
+		return max.get();
+	}
+
+	public final double getMeanMicros()
+	{
+		long num = count.get();
+		return num == 0 ? 0 : total.get() / (num * 1000.0);
+	}
+
+	public final double getP50Micros()
+	{
+		return Percentile(50) / 1000.0;
+	}
+
+	public final double getP90Micros()
+	{
+		return Percentile(90) / 1000.0;
+	}
+
+	public final double getP99Micros()
+	{
+		return Percentile(99) / 1000.0;
+	}
+
+	public final double getP999Micros()
+	{
+		return Percentile(99.9) / 1000.0;
+	}
+
+	public final double getMaxMicros()
+	{
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * Forget everything recorded.
+	 */
+	public final void Reset()
+	{
+		for (int ind = 0; ind < NUM_BUCKETS; ind++)
+			counts.set(ind, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * One line: the count and then mean, p50, p90, p99, p99.9 and max in microseconds.
+	 */
+	public String toString()
+	{
+		return String.format("%-12s n=%-7d mean=%9.1f p50=%9.1f p90=%9.1f p99=%9.1f p99.9=%9.1f max=%9.1f us", name,
+				getCount(), getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+	}
+}
@@ -0,0 +1,23 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+/**
+ * What JMX shows of a LatencyHistogram. Times are in microseconds.
+ */
+public interface LatencyHistogramMBean
+{
+	long getCount();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP90Micros();
+
+	double getP99Micros();
+
+	double getP999Micros();
+
+	double getMaxMicros();
+
+	void Reset();
+}
@@ -0,0 +1,169 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Hands messages from the socket thread to a single decision thread. The socket thread only copies the message
+ * out of the socket buffer and queues it, so it is never blocked by the A.I. The decision thread processes the
+ * messages one at a time in the order they arrived - nothing is thrown away, except that a queued message marked
+ * as coalescable (a full state snapshot) is replaced when a newer coalescable message arrives right behind it.
+ */
+public class MessagePipeline implements Runnable
+{
+	/**
+	 * Processes each message on the decision thread.
+	 */
+	public static interface MessageHandler
+	{
+		/**
+		 * @param message The message. Only valid for the length of the call.
+		 */
+		void ProcessMessage(ByteBuffer message);
+	}
+
+	private static final class Message
+	{
+		private final byte[] data;
+		private final int length;
+		private final boolean coalescable;
+
+		private Message(byte[] data, int length, boolean coalescable)
+		{
+			this.data = data;
+			this.length = length;
+			this.coalescable = coalescable;
+		}
+	}
+
+	// the number of message buffers kept for re-use.
+	private static final int POOL_SIZE = 8;
+
+	private final MessageHandler handler;
+	private final Thread worker;
+	// both guarded by queue.
+	private final ArrayDeque<Message> queue = new ArrayDeque<Message>();
+	private final ArrayDeque<byte[]> pool = new ArrayDeque<byte[]>();
+
+	private volatile long numPosted;
+	private volatile long numCoalesced;
+	private volatile long numProcessed;
+
+	public MessagePipeline(MessageHandler handler)
+	{
+		this.handler = handler;
+		worker = new Thread(this, "decision");
+		worker.setDaemon(true);
+	}
+
+	public final void Start()
+	{
+		worker.start();
+	}
+
+	/**
+	 * Queue a message. Called on the socket thread.
+	 *
+	 * @param message     The message. It is copied so the caller can re-use the buffer once this returns.
+	 * @param coalescable true if this message is a complete snapshot that makes an earlier coalescable message
+	 *                    obsolete.
+	 */
+	public final void Post(ByteBuffer message, boolean coalescable)
+	{
+		int length = message.remaining();
+		synchronized (queue)
+		{
+			byte[] data = null;
+			while ((data == null) && (! pool.isEmpty()))
+			{
+				data = pool.poll();
+				if (data.length < length)
+					data = null;
+			}
+			if (data == null)
+				data = new byte[length];
+			message.duplicate().get(data, 0, length);
+
+			numPosted++;
+			if (coalescable && (! queue.isEmpty()) && queue.peekLast().coalescable)
+			{
+				// the decision thread has not started on the previous snapshot - it only needs the newest one.
+				numCoalesced++;
+				ClientMetrics.get().MessageCoalesced();
+				Recycle(queue.pollLast().data);
+			}
+			queue.add(new Message(data, length, coalescable));
+			queue.notify();
+		}
+	}
+
+	/**
+	 * The number of messages posted.
+	 */
+	public final long getNumPosted()
+	{
+		return numPosted;
+	}
+
+	/**
+	 * The number of messages replaced by a newer snapshot before they were processed.
+	 */
+	public final long getNumCoalesced()
+	{
+		return numCoalesced;
+	}
+
+	/**
+	 * The number of messages the handler has finished with.
+	 */
+	public final long getNumProcessed()
+	{
+		return numProcessed;
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			Message message;
+			synchronized (queue)
+			{
+				while (queue.isEmpty())
+				{
+					try
+					{
+						queue.wait();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				message = queue.poll();
+			}
+
+			try
+			{
+				handler.ProcessMessage(ByteBuffer.wrap(message.data, 0, message.length));
+			}
+			catch (RuntimeException ex)
+			{
+				System.out.println(String.format("Error processing message. Exception: %1$s", ex));
+				ex.printStackTrace();
+			}
+
+			synchronized (queue)
+			{
+				Recycle(message.data);
+			}
+			numProcessed++;
+		}
+	}
+
+	// call with queue locked.
+	private void Recycle(byte[] data)
+	{
+		if (pool.size() < POOL_SIZE)
+			pool.add(data);
+	}
+}
@@ -0,0 +1,181 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import net.windward.Windwardopolis.api.Passenger;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Writes an orders message straight into a reusable buffer as a complete frame - the 4 byte length and then the
+ * UTF-8 XML - so it can go to the socket in one write. This is what building a dom4j Document and calling asXML()
+ * made, without the Document, the Strings or the copies:
+ *
+ *   <?xml version="1.0" encoding="UTF-8"?>
+ *   <move><path>x,y;x,y;</path><pick-up>name;name;</pick-up></move>
+ *
+ * The buffer is kept from one message to the next (it only grows), so an encoder must only be used by one thread at a
+ * time, and the frame returned is only good until the next Encode.
+ */
+public class OrderEncoder
+{
+	private static final byte[] XML_DECLARATION = Ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+
+	private static final int INITIAL_CAPACITY = 4096;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Encode an orders message.
+	 *
+	 * @param order  The root element name (ready or move).
+	 * @param path   The path to drive. Not written if empty.
+	 * @param pickUp The passengers to pick up. Not written if empty.
+	 * @return The frame, from position to limit.
+	 */
+	public final ByteBuffer Encode(String order, List<Point> path, List<Passenger> pickUp)
+	{
+		buffer.clear();
+		buffer.putInt(0);
+		Put(XML_DECLARATION);
+		Put('<');
+		PutText(order);
+		if (path.isEmpty() && pickUp.isEmpty())
+		{
+			Put('/');
+			Put('>');
+		}
+		else
+		{
+			Put('>');
+			if (!path.isEmpty())
+			{
+				PutTag("<path>");
+				for (Point ptOn : path)
+				{
+					PutInt(ptOn.x);
+					Put(',');
+					PutInt(ptOn.y);
+					Put(';');
+				}
+				PutTag("</path>");
+			}
+			if (!pickUp.isEmpty())
+			{
+				PutTag("<pick-up>");
+				for (Passenger psngrOn : pickUp)
+				{
+					PutText(psngrOn.getName());
+					Put(';');
+				}
+				PutTag("</pick-up>");
+			}
+			Put('<');
+			Put('/');
+			PutText(order);
+			Put('>');
+		}
+		buffer.putInt(0, buffer.position() - 4);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void Reserve(int bytes)
+	{
+		if (buffer.remaining() >= bytes)
+			return;
+		ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	}
+
+	private void Put(char ch)
+	{
+		Reserve(1);
+		buffer.put((byte) ch);
+	}
+
+	private void Put(byte[] bytes)
+	{
+		Reserve(bytes.length);
+		buffer.put(bytes);
+	}
+
+	// tag names are ASCII.
+	private void PutTag(String tag)
+	{
+		Reserve(tag.length());
+		for (int ind = 0; ind < tag.length(); ind++)
+			buffer.put((byte) tag.charAt(ind));
+	}
+
+	private void PutInt(int value)
+	{
+		Reserve(11);
+		if (value < 0)
+		{
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (int rest = value / 10; rest > 0; rest /= 10)
+			digits *= 10;
+		for (; digits > 0; digits /= 10)
+			buffer.put((byte) ('0' + (value / digits) % 10));
+	}
+
+	/**
+	 * Text as UTF-8, escaped for XML.
+	 */
+	private void PutText(String text)
+	{
+		for (int ind = 0; ind < text.length(); ind++)
+		{
+			char ch = text.charAt(ind);
+			switch (ch)
+			{
+				case '&':
+					PutTag("&amp;");
+					continue;
+				case '<':
+					PutTag("&lt;");
+					continue;
+				case '>':
+					PutTag("&gt;");
+					continue;
+			}
+			Reserve(4);
+			if (ch < 0x80)
+				buffer.put((byte) ch);
+			else if (ch < 0x800)
+			{
+				buffer.put((byte) (0xC0 | (ch >> 6)));
+				buffer.put((byte) (0x80 | (ch & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(ch) && (ind + 1 < text.length()) && Character.isLowSurrogate(text.charAt(ind + 1)))
+			{
+				int code = Character.toCodePoint(ch, text.charAt(++ind));
+				buffer.put((byte) (0xF0 | (code >> 18)));
+				buffer.put((byte) (0x80 | ((code >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((code >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (code & 0x3F)));
+			}
+			else
+			{
+				buffer.put((byte) (0xE0 | (ch >> 12)));
+				buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (ch & 0x3F)));
+			}
+		}
+	}
+
+	private static byte[] Ascii(String text)
+	{
+		byte[] bytes = new byte[text.length()];
+		for (int ind = 0; ind < bytes.length; ind++)
+			bytes[ind] = (byte) text.charAt(ind);
+		return bytes;
+	}
+}
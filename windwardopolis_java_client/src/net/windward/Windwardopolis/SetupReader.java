@@ -0,0 +1,113 @@
+package net.windward.Windwardopolis;// Created by Windward Studios, Inc. (www.windward.net). No copyright claimed - do anything you want with this code.
+
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.Passenger;
+import net.windward.Windwardopolis.api.Player;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+
+/**
+ * Reads a setup message with a pull parser. Almost all of a setup message is the map's tiles, and those are packed
+ * straight into the Map as they are read. The players, companies and passengers are a few dozen elements - each of
+ * those lists is read into a small dom4j element and made by its FromXml, so there is one place that knows how to
+ * read them.
+ */
+public class SetupReader
+{
+	private final String myGuid;
+	private Map map;
+	private ArrayList<Player> players;
+	private ArrayList<Company> companies;
+	private ArrayList<Passenger> passengers;
+
+	/**
+	 * Read a setup message.
+	 *
+	 * @param reader Positioned on the setup start element. Left at the end of the message.
+	 */
+	public SetupReader(XMLStreamReader reader) throws XMLStreamException
+	{
+		myGuid = reader.getAttributeValue(null, "my-guid");
+
+		// the passengers need the companies, which may come after them.
+		Element elemPlayers = null;
+		Element elemCompanies = null;
+		Element elemPassengers = null;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			String name = reader.getLocalName();
+			if (name.equals("map"))
+				map = new Map(reader);
+			else if (name.equals("players"))
+				elemPlayers = ReadElement(reader);
+			else if (name.equals("companies"))
+				elemCompanies = ReadElement(reader);
+			else if (name.equals("passengers"))
+				elemPassengers = ReadElement(reader);
+			else
+			{
+				TRAP.trap();
+				ReadElement(reader);
+			}
+		}
+		reader.close();
+
+		players = Player.FromXml(elemPlayers);
+		companies = Company.FromXml(elemCompanies);
+		passengers = Passenger.FromXml(elemPassengers, companies);
+		map.AddCompanies(companies);
+	}
+
+	/**
+	 * Read the element the reader is on (and everything in it) into a dom4j element.
+	 *
+	 * @param reader Positioned on a start element. Left on its end element.
+	 */
+	private static Element ReadElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		Element elem = DocumentHelper.createElement(reader.getLocalName());
+		for (int ind = 0; ind < reader.getAttributeCount(); ind++)
+			elem.addAttribute(reader.getAttributeLocalName(ind), reader.getAttributeValue(ind));
+		while (true)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				elem.add(ReadElement(reader));
+			else if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA))
+				elem.addText(reader.getText());
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				return elem;
+		}
+	}
+
+	public final String getMyGuid()
+	{
+		return myGuid;
+	}
+
+	public final Map getMap()
+	{
+		return map;
+	}
+
+	public final ArrayList<Player> getPlayers()
+	{
+		return players;
+	}
+
+	public final ArrayList<Company> getCompanies()
+	{
+		return companies;
+	}
+
+	public final ArrayList<Passenger> getPassengers()
+	{
+		return passengers;
+	}
+}
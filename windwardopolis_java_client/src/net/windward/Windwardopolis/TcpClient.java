@@ -5,72 +5,46 @@ package net.windward.Windwardopolis;// code primarily from http://forum.codecall
 import net.windward.Windwardopolis.IPlayerCallback;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
 
 public class TcpClient implements Runnable
 {
 	private static final int BUFFER_SIZE = 65536 *4;
+	// the largest message we accept from the server. A big map's setup message is well under 1MB.
+	private static final int MAX_FRAME_SIZE = Integer.getInteger("windward.maxFrameSize", 16 * 1024 * 1024);
 	private static final int port = 1707;
 	private IPlayerCallback playerCallback;
 
 	private Thread worker;
-	private Socket socket;
-	private byte[] socketReadBuffer;
+	private SocketChannel channel;
+	// orders can be sent from more than one thread - a message must go out in one piece.
+	private final Object writeLock = new Object();
 
 	private boolean abortRequested = false;
 
-	// we store up a message here.
-	// length: 0  => have less than 4 bytes in (including 0)
-	//         >0 => have part/all of a message - length bytes have been removed from the buffer
-	private FifoByteBuffer messageBuffer;
-	private int messageLength;
+	// reads from the socket and splits what is read into messages.
+	private FrameDecoder frameDecoder;
+
+	// logs each message for replay. null unless -Dwindward.record is set.
+	private static final FrameRecorder recorder = FrameRecorder.FromProperty();
+
+	private static final ClientMetrics metrics = ClientMetrics.get();
 
 	public TcpClient(IPlayerCallback playerCallback, String address) throws IOException {
 		this.playerCallback = playerCallback;
-		messageBuffer = new FifoByteBuffer(BUFFER_SIZE);
-		socketReadBuffer = new byte[BUFFER_SIZE];
-		socket = new Socket(address, port);
+		frameDecoder = new FrameDecoder(BUFFER_SIZE, MAX_FRAME_SIZE);
+		channel = SocketChannel.open(new InetSocketAddress(address, port));
+		// orders are small and latency matters - don't hold them back waiting for an ACK.
+		channel.socket().setTcpNoDelay(true);
 	}
 
 	public final Socket getSocket()
 	{
-		return socket;
-	}
-	public final void setSocket(Socket value)
-	{
-		socket = value;
-	}
-	public final byte[] getSocketReadBuffer()
-	{
-		return socketReadBuffer;
-	}
-
-	public final void ReceivedData(int bytesRead)
-	{
-		messageBuffer.Write(getSocketReadBuffer(), 0, bytesRead);
-	}
-
-	public final boolean getHasMessage()
-	{
-		// we may need to extract the length
-		if (messageLength == 0 && messageBuffer.getCount() >= 4)
-		{
-			ByteBuffer bBuf = ByteBuffer.allocate(4);
-			bBuf.order(ByteOrder.LITTLE_ENDIAN);
-			bBuf.put(messageBuffer.Read(4));
-			bBuf.position(0);
-			messageLength = bBuf.getInt();
-		}
-		return messageLength > 0 && messageLength <= messageBuffer.getCount();
-	}
-
-	public final String getMessage() throws UnsupportedEncodingException {
-		String rtn = new String (messageBuffer.Read(messageLength), "UTF-8");
-		messageLength = 0;
-		return rtn;
+		return channel == null ? null : channel.socket();
 	}
 
 	public final void Start()
@@ -91,7 +65,7 @@ public class TcpClient implements Runnable
 		try
 		{
 			while (true) {
-				int bytesRead = socket.getInputStream().read(socketReadBuffer);
+				int bytesRead = frameDecoder.read(channel);
 				if (bytesRead == 0) {
 					TRAP.trap();
 					continue;
@@ -100,25 +74,20 @@ public class TcpClient implements Runnable
 					TRAP.trap();
 					throw new IllegalStateException("read socket returned -1");
 				}
+				metrics.BytesIn(bytesRead);
 
-
-			synchronized (this)
-			{
-				ReceivedData(bytesRead);
-			}
-
-			// only way we have multiple messages is an error on the server side - but that could happen.
-			while (true)
-			{
-				String message;
-				synchronized (this)
+				// only way we have multiple messages is an error on the server side - but that could happen.
+				ByteBuffer message;
+				long start = System.nanoTime();
+				while ((message = frameDecoder.nextFrame()) != null)
 				{
-					if (! getHasMessage())
-						break;
-					message =  getMessage();
+					if (recorder != null)
+						recorder.Record(message);
+					playerCallback.IncomingMessage(message);
+					metrics.MessageReceived();
+					metrics.getDecode().RecordSince(start);
+					start = System.nanoTime();
 				}
-				playerCallback.IncomingMessage(message);
-			}
 			}
 		}
 		catch (Exception ex)
@@ -144,21 +113,43 @@ public class TcpClient implements Runnable
 		ByteBuffer bBuf = ByteBuffer.allocate(4);
 		bBuf.order(ByteOrder.LITTLE_ENDIAN);
 		bBuf.putInt(bytes.length);
-		socket.getOutputStream().write(bBuf.array(), 0, 4);
-		TRAP.trap(bytes.length > BUFFER_SIZE);
-		for (int offset = 0; offset < bytes.length; offset += BUFFER_SIZE)
-			socket.getOutputStream().write(bytes, offset, Math.min(bytes.length - offset, BUFFER_SIZE));
+		bBuf.flip();
+		ByteBuffer body = ByteBuffer.wrap(bytes);
+		// the length and the message in one gathering write.
+		ByteBuffer[] frame = {bBuf, body};
+		synchronized (writeLock)
+		{
+			while (body.hasRemaining())
+				channel.write(frame);
+		}
+		metrics.BytesOut(4 + bytes.length);
+	}
+
+	/**
+	 * Send a message that is already framed (the length and then the message, as OrderEncoder makes).
+	 *
+	 * @param frame The frame, from position to limit. It is all written when this returns.
+	 */
+	public final void SendFrame(ByteBuffer frame) throws IOException {
+
+		int bytes = frame.remaining();
+		synchronized (writeLock)
+		{
+			while (frame.hasRemaining())
+				channel.write(frame);
+		}
+		metrics.BytesOut(bytes);
 	}
 
 	public final void Close() throws InterruptedException, IOException {
 
-		if (socket == null)
+		if (channel == null)
 			return;
 
 		try
 		{
-			if (socket.isConnected())
-				socket.close();
+			if (channel.isOpen())
+				channel.close();
 			else TRAP.trap();
 		}
 
@@ -167,14 +158,14 @@ public class TcpClient implements Runnable
 			// nada
 			TRAP.trap();
 		}
-		socket = null;
+		channel = null;
 		Thread.sleep(50);
 	}
 
 	public void abort() {
 		abortRequested = true;
 		try {
-			if ((socket != null) && socket.isConnected())
+			if ((channel != null) && channel.isOpen())
 				Close();
 			if (worker != null && worker.isAlive())
 				worker.stop();
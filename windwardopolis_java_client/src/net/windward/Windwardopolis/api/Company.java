@@ -12,6 +12,19 @@ public class Company
 		setPassengers(new java.util.ArrayList<Passenger>());
 	}
 
+	/**
+	 The dense id of this company (0 .. number of companies - 1). Set when the GameIndex is built.
+	*/
+	private int privateId;
+	public final int getId()
+	{
+		return privateId;
+	}
+	final void setId(int value)
+	{
+		privateId = value;
+	}
+
 	/** 
 	 The name of the company.
 	*/
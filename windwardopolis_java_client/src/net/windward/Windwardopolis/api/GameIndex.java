@@ -0,0 +1,116 @@
+package net.windward.Windwardopolis.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lookup tables for the players, passengers and companies of a game. This is built once from the setup message and
+ * does not change after that (the objects it points to do). Status messages name players by GUID and passengers and
+ * companies by name - this resolves each of those in O(1) instead of scanning the lists.
+ *
+ * Building the index also gives every Player, Passenger and Company a dense id (0 .. count-1, in list order) that
+ * can be used to index arrays.
+ */
+public final class GameIndex
+{
+	private final List<Player> players;
+	private final List<Passenger> passengers;
+	private final List<Company> companies;
+
+	private final HashMap<String, Player> playersByGuid;
+	private final HashMap<String, Passenger> passengersByName;
+	private final HashMap<String, Company> companiesByName;
+
+	public GameIndex(List<Player> players, List<Company> companies, List<Passenger> passengers)
+	{
+		this.players = Collections.unmodifiableList(new ArrayList<Player>(players));
+		this.passengers = Collections.unmodifiableList(new ArrayList<Passenger>(passengers));
+		this.companies = Collections.unmodifiableList(new ArrayList<Company>(companies));
+
+		playersByGuid = new HashMap<String, Player>(players.size() * 2);
+		for (int id = 0; id < players.size(); id++)
+		{
+			Player plyrOn = players.get(id);
+			plyrOn.setId(id);
+			playersByGuid.put(plyrOn.getGuid(), plyrOn);
+		}
+
+		passengersByName = new HashMap<String, Passenger>(passengers.size() * 2);
+		for (int id = 0; id < passengers.size(); id++)
+		{
+			Passenger psngrOn = passengers.get(id);
+			psngrOn.setId(id);
+			passengersByName.put(Fold(psngrOn.getName()), psngrOn);
+		}
+
+		companiesByName = new HashMap<String, Company>(companies.size() * 2);
+		for (int id = 0; id < companies.size(); id++)
+		{
+			Company cmpyOn = companies.get(id);
+			cmpyOn.setId(id);
+			companiesByName.put(Fold(cmpyOn.getName()), cmpyOn);
+		}
+	}
+
+	/**
+	 The player with this GUID. null if no such player.
+	*/
+	public Player getPlayer(String guid)
+	{
+		return guid == null ? null : playersByGuid.get(guid);
+	}
+
+	/**
+	 The passenger with this name (case insensitive). null if no such passenger.
+	*/
+	public Passenger getPassenger(String name)
+	{
+		return name == null ? null : passengersByName.get(Fold(name));
+	}
+
+	/**
+	 The company with this name (case insensitive). null if no such company.
+	*/
+	public Company getCompany(String name)
+	{
+		return name == null ? null : companiesByName.get(Fold(name));
+	}
+
+	public Player getPlayer(int id)
+	{
+		return players.get(id);
+	}
+
+	public Passenger getPassenger(int id)
+	{
+		return passengers.get(id);
+	}
+
+	public Company getCompany(int id)
+	{
+		return companies.get(id);
+	}
+
+	public List<Player> getPlayers()
+	{
+		return players;
+	}
+
+	public List<Passenger> getPassengers()
+	{
+		return passengers;
+	}
+
+	public List<Company> getCompanies()
+	{
+		return companies;
+	}
+
+	private static String Fold(String name)
+	{
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+}
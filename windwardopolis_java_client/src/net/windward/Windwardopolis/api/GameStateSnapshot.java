@@ -0,0 +1,350 @@
+package net.windward.Windwardopolis.api;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The players and passengers as they were after one status message, that never changes. The Player, Passenger and
+ * Company objects are updated in place as each status message is read, so only the thread reading the messages can
+ * look at them. Any thread can look at a snapshot - the A.I. takes one per status message and publishes it through a
+ * volatile reference, and a planner that reads that reference once sees one game however many messages are applied
+ * while it works.
+ *
+ * Players and passengers are by dense id (see GameIndex). The Player, Passenger and Company objects are still how
+ * each is named - a snapshot only uses what does not change of those (names, points, enemies, bus stops).
+ *
+ * A snapshot shares the state of each player and passenger that did not change with the snapshot before it - the
+ * live objects are compared with the last state, and a state is only made for what differs. If no passenger changed
+ * the passenger states and the lists of who is waiting where are shared too (they never change once made). So a status
+ * message that only moves the limos makes a state per moved limo and nothing per passenger.
+ */
+public final class GameStateSnapshot
+{
+	private final long epoch;
+	private final PlayerState[] players;
+	private final PassengerState[] passengers;
+	// waiting[company id] - the passengers waiting at the company's bus stop, in id order.
+	private final List<Passenger>[] waiting;
+
+	private GameStateSnapshot(long epoch, PlayerState[] players, PassengerState[] passengers, List<Passenger>[] waiting)
+	{
+		this.epoch = epoch;
+		this.players = players;
+		this.passengers = passengers;
+		this.waiting = waiting;
+	}
+
+	/**
+	 Take a snapshot of the players and passengers.
+
+	 @param previous The last snapshot taken of this game, null if this is the first.
+	 @param players All players, with their ids set.
+	 @param passengers All passengers, with their ids set.
+	 @param numCompanies The number of companies.
+	 @return The snapshot, an epoch after previous.
+	*/
+	public static GameStateSnapshot Take(GameStateSnapshot previous, List<Player> players, List<Passenger> passengers, int numCompanies)
+	{
+		// the arrays are only copied when a state in them changes.
+		boolean playersChanged = previous == null;
+		PlayerState[] playerStates = previous == null ? new PlayerState[players.size()] : previous.players;
+		for (Player plyrOn : players)
+		{
+			if ((previous != null) && previous.players[plyrOn.getId()].Matches(plyrOn))
+				continue;
+			if (!playersChanged)
+			{
+				playerStates = playerStates.clone();
+				playersChanged = true;
+			}
+			playerStates[plyrOn.getId()] = new PlayerState(plyrOn);
+		}
+
+		boolean passengersChanged = previous == null;
+		PassengerState[] passengerStates = previous == null ? new PassengerState[passengers.size()] : previous.passengers;
+		for (Passenger psngrOn : passengers)
+		{
+			if ((previous != null) && previous.passengers[psngrOn.getId()].Matches(psngrOn, players))
+				continue;
+			if (!passengersChanged)
+			{
+				passengerStates = passengerStates.clone();
+				passengersChanged = true;
+			}
+			passengerStates[psngrOn.getId()] = new PassengerState(psngrOn, players);
+		}
+
+		List<Passenger>[] waiting;
+		if (passengersChanged)
+		{
+			List<Passenger>[] lists = NewLists(numCompanies);
+			for (int id = 0; id < numCompanies; id++)
+				lists[id] = new ArrayList<Passenger>();
+			for (PassengerState state : passengerStates)
+				if ((state.getLobby() != null) && (state.getCar() < 0))
+					lists[state.getLobby().getId()].add(state.getPassenger());
+			waiting = NewLists(numCompanies);
+			for (int id = 0; id < numCompanies; id++)
+				waiting[id] = lists[id].isEmpty() ? Collections.<Passenger>emptyList() : Collections.unmodifiableList(lists[id]);
+		}
+		else
+			waiting = previous.waiting;
+
+		return new GameStateSnapshot(previous == null ? 1 : previous.epoch + 1, playerStates, passengerStates, waiting);
+	}
+
+	// Java can't make an array of List<Passenger> - the cast is safe as the array is only ever given List<Passenger>.
+	@SuppressWarnings("unchecked")
+	private static List<Passenger>[] NewLists(int length)
+	{
+		return (List<Passenger>[]) new List<?>[length];
+	}
+
+	/**
+	 Counts the snapshots of a game, 1 for the first.
+	*/
+	public long getEpoch()
+	{
+		return epoch;
+	}
+
+	public int getNumPlayers()
+	{
+		return players.length;
+	}
+
+	public PlayerState getPlayer(int id)
+	{
+		return players[id];
+	}
+
+	public PlayerState getPlayer(Player player)
+	{
+		return players[player.getId()];
+	}
+
+	public int getNumPassengers()
+	{
+		return passengers.length;
+	}
+
+	public PassengerState getPassenger(int id)
+	{
+		return passengers[id];
+	}
+
+	public PassengerState getPassenger(Passenger passenger)
+	{
+		return passengers[passenger.getId()];
+	}
+
+	public int getNumCompanies()
+	{
+		return waiting.length;
+	}
+
+	/**
+	 The passengers waiting at a company's bus stop (not in a car), in id order.
+	*/
+	public List<Passenger> getWaiting(Company company)
+	{
+		return waiting[company.getId()];
+	}
+
+	/**
+	 A player's limo, passenger and score.
+	*/
+	public static final class PlayerState
+	{
+		private final Player player;
+		private final Point position;
+		private final int angle;
+		private final Passenger passenger;
+		private final float score;
+		private final int numDelivered;
+
+		private PlayerState(Player player)
+		{
+			this.player = player;
+			Limo limo = player.getLimo();
+			position = new Point(limo.getMapPosition());
+			angle = limo.getAngle();
+			passenger = limo.getPassenger();
+			score = player.getScore();
+			numDelivered = player.getPassengersDelivered().size();
+		}
+
+		public Player getPlayer()
+		{
+			return player;
+		}
+
+		/**
+		 The location of the limo in map units. Do not change it.
+		*/
+		public Point getPosition()
+		{
+			return position;
+		}
+
+		/**
+		 0 .. 359 The angle the limo is facing. 0 is North and 90 is East.
+		*/
+		public int getAngle()
+		{
+			return angle;
+		}
+
+		/**
+		 The passenger in the limo. null if no passenger.
+		*/
+		public Passenger getPassenger()
+		{
+			return passenger;
+		}
+
+		public float getScore()
+		{
+			return score;
+		}
+
+		public int getNumDelivered()
+		{
+			return numDelivered;
+		}
+
+		/**
+		 true if this is the player's state now (compared without making a new one).
+		*/
+		boolean Matches(Player player)
+		{
+			Limo limo = player.getLimo();
+			return (this.player == player) && position.equals(limo.getMapPosition()) && (angle == limo.getAngle()) &&
+					(passenger == limo.getPassenger()) && (Float.compare(score, player.getScore()) == 0) &&
+					(numDelivered == player.getPassengersDelivered().size());
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof PlayerState))
+				return false;
+			PlayerState other = (PlayerState) obj;
+			return (player == other.player) && position.equals(other.position) && (angle == other.angle) &&
+					(passenger == other.passenger) && (Float.compare(score, other.score) == 0) && (numDelivered == other.numDelivered);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (player.getId() * 31 + position.hashCode()) * 31 + angle;
+		}
+	}
+
+	/**
+	 Where a passenger is and where they are going.
+	*/
+	public static final class PassengerState
+	{
+		private final Passenger passenger;
+		private final Company lobby;
+		private final Company destination;
+		private final int car;
+		private final Company[] route;
+
+		private PassengerState(Passenger passenger, List<Player> players)
+		{
+			this.passenger = passenger;
+			lobby = passenger.getLobby();
+			destination = passenger.getDestination();
+			car = CarOf(passenger, players);
+			route = passenger.getRoute().toArray(new Company[passenger.getRoute().size()]);
+		}
+
+		public Passenger getPassenger()
+		{
+			return passenger;
+		}
+
+		/**
+		 The bus stop the passenger is waiting at. null if in a limo or has arrived at final destination.
+		*/
+		public Company getLobby()
+		{
+			return lobby;
+		}
+
+		/**
+		 The company the passenger wishes to go to. null if they have been delivered to their final destination.
+		*/
+		public Company getDestination()
+		{
+			return destination;
+		}
+
+		/**
+		 The id of the player whose limo the passenger is in. -1 if not in a limo.
+		*/
+		public int getCar()
+		{
+			return car;
+		}
+
+		/**
+		 The number of companies the passenger wishes to go to after destination.
+		*/
+		public int getRouteLength()
+		{
+			return route.length;
+		}
+
+		public Company getRoute(int index)
+		{
+			return route[index];
+		}
+
+		/**
+		 true if this is the passenger's state now (compared without making a new one).
+		*/
+		boolean Matches(Passenger passenger, List<Player> players)
+		{
+			if ((this.passenger != passenger) || (lobby != passenger.getLobby()) || (destination != passenger.getDestination()) ||
+					(car != CarOf(passenger, players)) || (route.length != passenger.getRoute().size()))
+				return false;
+			for (int ind = 0; ind < route.length; ind++)
+				if (route[ind] != passenger.getRoute().get(ind))
+					return false;
+			return true;
+		}
+
+		// the id of the player whose limo the passenger is in, -1 if none.
+		private static int CarOf(Passenger passenger, List<Player> players)
+		{
+			if (passenger.getCar() == null)
+				return -1;
+			for (Player plyrOn : players)
+				if (plyrOn.getLimo() == passenger.getCar())
+					return plyrOn.getId();
+			return -1;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof PassengerState))
+				return false;
+			PassengerState other = (PassengerState) obj;
+			return (passenger == other.passenger) && (lobby == other.lobby) && (destination == other.destination) &&
+					(car == other.car) && Arrays.equals(route, other.route);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return passenger.getId() * 31 + car;
+		}
+	}
+}
@@ -2,50 +2,348 @@ package net.windward.Windwardopolis.api;
 
 
 import java.awt.*;
+import java.util.BitSet;
+
 import org.dom4j.Element;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ The map. Each tile is packed into a short in one flat array, row by row (index y * width + x), so the whole map is
+ a few KB and reading a tile is one array read:
+   bits 0-1   MapSquare.TYPE
+   bits 2-5   MapSquare.DIRECTION
+   bits 6-9   the MapSquare.STOP_ stop sign bits
+   bit  10    a traffic signal
+   bits 11-14 the neighbor mask - bit n is set if a limo can drive out side n (0 north, clockwise, the same order
+              as the stop sign bits) onto the next tile
+   bit  15    set for every tile the server sent - 0 is off the map
+ Use the static TypeOf, DirectionOf, ... to read a packed tile. The MapSquare objects of getSquares() are only made
+ if asked for.
+
+ The setup message is read with Map(XMLStreamReader), which packs each tile as it is read with no Document.
+*/
 public class Map
 {
-	public Map(Element elemMap, java.util.ArrayList<Company> companies)
-	{
-		int width = Integer.parseInt(elemMap.attributeValue("width"));
-		int height = Integer.parseInt(elemMap.attributeValue("height"));
-		setUnitsPerTile(Integer.parseInt(elemMap.attributeValue("units-tile")));
+	private static final int TYPE_SHIFT = 0;
+	private static final int DIRECTION_SHIFT = 2;
+	private static final int STOP_SIGN_SHIFT = 6;
+	private static final int SIGNAL_BIT = 1 << 10;
+	private static final int NEIGHBOR_SHIFT = 11;
+	private static final int PRESENT_BIT = 1 << 15;
 
-		setSquares(new MapSquare[width][]);
-		for (int x = 0; x < width; x++)
+	// the offsets of the tile on each side, north then clockwise.
+	private static final int[] offsetX = {0, 1, 0, -1};
+	private static final int[] offsetY = {-1, 0, 1, 0};
+
+	// by their value - TYPE.forValue and DIRECTION.forValue make an array or a boxed Integer each call.
+	private static final MapSquare.TYPE[] types = MapSquare.TYPE.values();
+	private static final MapSquare.DIRECTION[] directions = new MapSquare.DIRECTION[16];
+
+	// the sides each MapSquare.DIRECTION is open on, as a bit mask of 1 << side.
+	private static final int[] openSides = new int[MapSquare.DIRECTION.values().length];
+	static
+	{
+		for (MapSquare.DIRECTION direction : MapSquare.DIRECTION.values())
 		{
-			getSquares()[x] = new MapSquare[height];
+			directions[direction.getValue()] = direction;
+			openSides[direction.getValue()] = OpenSides(direction);
 		}
+	}
+
+	private final int width;
+	private final int height;
+	private final short[] tiles;
+	private final BitSet driveable;
+	// the company of each bus stop tile. Sparse - most tiles are null.
+	private final Company[] companies;
+	private volatile MapSquare[][] squares;
+
+	public Map(Element elemMap, java.util.ArrayList<Company> companies)
+	{
+		width = Integer.parseInt(elemMap.attributeValue("width"));
+		height = Integer.parseInt(elemMap.attributeValue("height"));
+		setUnitsPerTile(Integer.parseInt(elemMap.attributeValue("units-tile")));
+		tiles = new short[width * height];
+		driveable = new BitSet(width * height);
+		this.companies = new Company[width * height];
 
 		for (Object elemTile : elemMap.selectNodes("tile"))
 		{
-            Element elemSq = (Element) elemTile;
+			Element elemSq = (Element) elemTile;
 			int x = Integer.parseInt(elemSq.attributeValue("x"));
 			int y = Integer.parseInt(elemSq.attributeValue("y"));
-			getSquares()[x][y] = new MapSquare(elemSq);
+			tiles[y * width + x] = Pack(elemSq);
 		}
 
-		for (Company cmpyOn : companies)
+		Finish();
+		AddCompanies(companies);
+	}
+
+	/**
+	 Read the map element of a setup message with a pull parser, packing each tile as it is read. The companies come
+	 after the map in the setup message - call AddCompanies once they are read.
+
+	 @param reader Positioned on the map start element. Left on its end element.
+	*/
+	public Map(XMLStreamReader reader) throws XMLStreamException
+	{
+		width = Integer.parseInt(reader.getAttributeValue(null, "width"));
+		height = Integer.parseInt(reader.getAttributeValue(null, "height"));
+		setUnitsPerTile(Integer.parseInt(reader.getAttributeValue(null, "units-tile")));
+		tiles = new short[width * height];
+		driveable = new BitSet(width * height);
+		companies = new Company[width * height];
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
 		{
-			getSquares()[cmpyOn.getBusStop().x][cmpyOn.getBusStop().y].ctor(cmpyOn);
+			if (reader.getLocalName().equals("tile"))
+			{
+				int x = 0, y = 0;
+				MapSquare.TYPE type = MapSquare.TYPE.PARK;
+				MapSquare.DIRECTION direction = MapSquare.DIRECTION.values()[0];
+				int stops = MapSquare.NONE;
+				boolean signal = false;
+				for (int ind = 0; ind < reader.getAttributeCount(); ind++)
+				{
+					String name = reader.getAttributeLocalName(ind);
+					String value = reader.getAttributeValue(ind);
+					if (name.equals("x"))
+						x = Integer.parseInt(value);
+					else if (name.equals("y"))
+						y = Integer.parseInt(value);
+					else if (name.equals("type"))
+						type = MapSquare.TYPE.valueOf(value);
+					else if (name.equals("direction"))
+						direction = MapSquare.DIRECTION.valueOf(value);
+					else if (name.equals("stop-sign"))
+						stops = MapSquare.parseSTOPs(value);
+					else if (name.equals("signal"))
+						signal = value.toLowerCase().equals("true");
+				}
+				if ((type == MapSquare.TYPE.ROAD) || (type == MapSquare.TYPE.BUS_STOP))
+					tiles[y * width + x] = Pack(type, direction, stops, signal);
+				else
+					tiles[y * width + x] = Pack(type, MapSquare.DIRECTION.values()[0], MapSquare.NONE, false);
+			}
+			for (int depth = 1; depth > 0; )
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+					depth++;
+				else if (event == XMLStreamConstants.END_ELEMENT)
+					depth--;
+			}
 		}
+
+		Finish();
 	}
 
-	/** 
-	 The map squares. This is in the format [x][y].
+	// the drivable tiles and the neighbor masks, once all the tiles are read.
+	private void Finish()
+	{
+		for (int index = 0; index < tiles.length; index++)
+			if (IsDriveable(tiles[index]))
+				driveable.set(index);
+
+		for (int index = driveable.nextSetBit(0); index >= 0; index = driveable.nextSetBit(index + 1))
+		{
+			int sides = openSides[(tiles[index] >> DIRECTION_SHIFT) & 0x0F];
+			int mask = 0;
+			for (int side = 0; side < 4; side++)
+			{
+				if ((sides & (1 << side)) == 0)
+					continue;
+				int nx = index % width + offsetX[side];
+				int ny = index / width + offsetY[side];
+				if ((nx < 0) || (ny < 0) || (nx >= width) || (ny >= height))
+					continue;
+				short next = tiles[ny * width + nx];
+				if (IsDriveable(next) && ((openSides[(next >> DIRECTION_SHIFT) & 0x0F] & (1 << ((side + 2) & 3))) != 0))
+					mask |= 1 << side;
+			}
+			tiles[index] |= mask << NEIGHBOR_SHIFT;
+		}
+	}
+
+	/**
+	 Set the company of each bus stop tile.
 	*/
-	private MapSquare[][] privateSquares;
-	public final MapSquare[][] getSquares()
+	public final void AddCompanies(java.util.List<Company> companyList)
+	{
+		for (Company cmpyOn : companyList)
+			companies[cmpyOn.getBusStop().y * width + cmpyOn.getBusStop().x] = cmpyOn;
+		// made again with the companies if asked for.
+		squares = null;
+	}
+
+	/**
+	 A tile packed the way the map holds it (with no neighbor mask - that is set when the map is built).
+	*/
+	public static short Pack(MapSquare.TYPE type, MapSquare.DIRECTION direction, int stopSigns, boolean signal)
+	{
+		return (short) (PRESENT_BIT | (type.getValue() << TYPE_SHIFT) | (direction.getValue() << DIRECTION_SHIFT)
+				| ((stopSigns & 0x0F) << STOP_SIGN_SHIFT) | (signal ? SIGNAL_BIT : 0));
+	}
+
+	// a tile element, read as MapSquare(Element) reads it.
+	private static short Pack(Element elemTile)
+	{
+		MapSquare.TYPE type = MapSquare.TYPE.valueOf(elemTile.attributeValue("type"));
+		if ((type != MapSquare.TYPE.ROAD) && (type != MapSquare.TYPE.BUS_STOP))
+			return Pack(type, MapSquare.DIRECTION.values()[0], MapSquare.NONE, false);
+		String stops = elemTile.attributeValue("stop-sign");
+		String signal = elemTile.attributeValue("signal");
+		return Pack(type, MapSquare.DIRECTION.valueOf(elemTile.attributeValue("direction")),
+				stops == null ? MapSquare.NONE : MapSquare.parseSTOPs(stops), (signal != null) && signal.toLowerCase().equals("true"));
+	}
+
+	public static MapSquare.TYPE TypeOf(short tile)
+	{
+		return types[(tile >> TYPE_SHIFT) & 0x03];
+	}
+
+	public static MapSquare.DIRECTION DirectionOf(short tile)
+	{
+		return directions[(tile >> DIRECTION_SHIFT) & 0x0F];
+	}
+
+	/**
+	 The MapSquare.STOP_ bits of a tile.
+	*/
+	public static int StopSignsOf(short tile)
+	{
+		return (tile >> STOP_SIGN_SHIFT) & 0x0F;
+	}
+
+	public static boolean SignalOf(short tile)
+	{
+		return (tile & SIGNAL_BIT) != 0;
+	}
+
+	/**
+	 The sides a limo can drive out of a tile onto the next tile, as a bit mask of 1 << side (0 north, clockwise).
+	*/
+	public static int NeighborMaskOf(short tile)
+	{
+		return (tile >> NEIGHBOR_SHIFT) & 0x0F;
+	}
+
+	/**
+	 True if a tile can be driven on (ROAD or BUS_STOP).
+	*/
+	public static boolean IsDriveable(short tile)
 	{
-		return privateSquares;
+		int type = (tile >> TYPE_SHIFT) & 0x03;
+		return ((tile & PRESENT_BIT) != 0) && ((type == MapSquare.TYPE.ROAD.ordinal()) || (type == MapSquare.TYPE.BUS_STOP.ordinal()));
 	}
-	protected final void setSquares(MapSquare[][] value)
+
+	/**
+	 The sides a road is open on, as a bit mask of 1 << side (0 north, clockwise). These match the server's
+	 MapTile.GetRandomNext (e.g. T_NORTH is open north, east and west; CURVE_NE east and south).
+	*/
+	public static int OpenSides(MapSquare.DIRECTION direction)
+	{
+		switch (direction)
+		{
+			case NORTH_SOUTH:
+				return 0x01 | 0x04;
+			case EAST_WEST:
+				return 0x02 | 0x08;
+			case INTERSECTION:
+				return 0x0F;
+			case NORTH_UTURN:
+				return 0x04;
+			case EAST_UTURN:
+				return 0x08;
+			case SOUTH_UTURN:
+				return 0x01;
+			case WEST_UTURN:
+				return 0x02;
+			case T_NORTH:
+				return 0x01 | 0x02 | 0x08;
+			case T_EAST:
+				return 0x01 | 0x02 | 0x04;
+			case T_SOUTH:
+				return 0x02 | 0x04 | 0x08;
+			case T_WEST:
+				return 0x01 | 0x04 | 0x08;
+			// a curve is named for the way it is entered and left heading north/south - CURVE_NE is entered going
+			// north (through its south side) and left going east.
+			case CURVE_NE:
+				return 0x02 | 0x04;
+			case CURVE_NW:
+				return 0x08 | 0x04;
+			case CURVE_SE:
+				return 0x02 | 0x01;
+			case CURVE_SW:
+				return 0x08 | 0x01;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 The packed tile at a tile index (y * width + x).
+	*/
+	public final short Tile(int index)
 	{
-		privateSquares = value;
+		return tiles[index];
 	}
 
-	/** 
+	/**
+	 The packed tile at a point. 0 if off the map.
+	*/
+	public final short Tile(int x, int y)
+	{
+		if ((x < 0) || (y < 0) || (x >= width) || (y >= height))
+			return 0;
+		return tiles[y * width + x];
+	}
+
+	/**
+	 The drivable tiles, by tile index (y * width + x). This is the map's own set - do not change it.
+	*/
+	public final BitSet getDriveable()
+	{
+		return driveable;
+	}
+
+	/**
+	 The company whose bus stop is at a tile index. null if none.
+	*/
+	public final Company CompanyAt(int index)
+	{
+		return companies[index];
+	}
+
+	/**
+	 The map squares. This is in the format [x][y]. These are made from the packed tiles the first time they are
+	 asked for - searches should use Tile.
+	*/
+	public final MapSquare[][] getSquares()
+	{
+		MapSquare[][] grid = squares;
+		if (grid == null)
+		{
+			grid = new MapSquare[width][height];
+			for (int x = 0; x < width; x++)
+			{
+				for (int y = 0; y < height; y++)
+				{
+					int index = y * width + x;
+					if ((tiles[index] & PRESENT_BIT) != 0)
+						grid[x][y] = new MapSquare(tiles[index], companies[index]);
+				}
+			}
+			squares = grid;
+		}
+		return grid;
+	}
+
+	/**
 	 The number of map units in a tile. Some points are in map units and
 	 some are in tile units.
 	*/
@@ -59,9 +357,9 @@ public class Map
 		privateUnitsPerTile = value;
 	}
 
-	/** 
+	/**
 	 Convert from map units to tile units.
-	 
+
 	 @param ptMap Point in map units.
 	 @return Point in tile units.
 	*/
@@ -70,27 +368,27 @@ public class Map
 		return new Point(ptMap.x / getUnitsPerTile(), ptMap.y / getUnitsPerTile());
 	}
 
-	/** 
+	/**
 	 The width of the map. Units are squares.
 	*/
 	public final int getWidth()
 	{
-		return getSquares().length;
+		return width;
 	}
 
-	/** 
+	/**
 	 The height of the map. Units are squares.
 	*/
 	public final int getHeight()
 	{
-		return getSquares()[0].length;
+		return height;
 	}
 
-	/** 
+	/**
 	 Returns the requested point or null if off the map.
-	 
+
 	 @param pt
-	 @return 
+	 @return
 	*/
 	public final MapSquare SquareOrDefault(Point pt)
 	{
@@ -100,4 +398,4 @@ public class Map
 		}
 		return getSquares()[pt.x][pt.y];
 	}
-}
\ No newline at end of file
+}
@@ -234,6 +234,21 @@ public class MapSquare
 		}
 	}
 
+	/**
+	 A view of a tile as Map packs it.
+	*/
+	MapSquare(short tile, Company company)
+	{
+		setType(Map.TypeOf(tile));
+		if (getIsDriveable())
+		{
+			setDirection(Map.DirectionOf(tile));
+			setStopSigns(Map.StopSignsOf(tile));
+			setSignal(Map.SignalOf(tile));
+		}
+		setCompany(company);
+	}
+
 	public final void ctor(Company company)
 	{
 		setCompany(company);
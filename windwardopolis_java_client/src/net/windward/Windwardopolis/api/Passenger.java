@@ -4,6 +4,10 @@ import net.windward.Windwardopolis.TRAP;
 import org.dom4j.Element;
 import org.dom4j.Attribute;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 public class Passenger {
     private Passenger(Element elemPassenger, java.util.ArrayList<Company> companies) {
         setName(elemPassenger.attribute("name").getValue());
@@ -38,6 +42,19 @@ public class Passenger {
         setEnemies(new java.util.ArrayList<Passenger>());
     }
 
+    /**
+     * The dense id of this passenger (0 .. number of passengers - 1). Set when the GameIndex is built.
+     */
+    private int privateId;
+
+    public final int getId() {
+        return privateId;
+    }
+
+    final void setId(int value) {
+        privateId = value;
+    }
+
     /**
      * The name of this passenger.
      */
@@ -181,46 +198,64 @@ public class Passenger {
         return passengers;
     }
 
-    public static void UpdateFromXml(java.util.ArrayList<Passenger> passengers, java.util.ArrayList<Company> companies, Element elemPassengers) {
+    public static void UpdateFromXml(GameIndex index, Element elemPassengers) {
         for (Object objPsngrOn : elemPassengers.selectNodes("passenger")) {
             Element elemPsngrOn = (Element) objPsngrOn;
-            Passenger psngrOn=null;
+            Update(index, elemPsngrOn.attributeValue("name"), elemPsngrOn.attributeValue("destination"),
+                    elemPsngrOn.attributeValue("status"), elemPsngrOn.attributeValue("lobby"));
+        }
+    }
 
-            for (Passenger ps : passengers) {
-                if (ps.getName().equalsIgnoreCase(elemPsngrOn.attribute("name").getValue()))
-                    psngrOn = ps;
+    /**
+     * Update the passengers from a status message as it is read.
+     *
+     * @param reader Positioned on the start of the passengers element. Returns positioned on the end of it.
+     */
+    public static void UpdateFromXml(GameIndex index, XMLStreamReader reader) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            Update(index, reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "destination"),
+                    reader.getAttributeValue(null, "status"), reader.getAttributeValue(null, "lobby"));
+
+            // skip to the end of this passenger
+            for (int depth = 1; depth > 0; ) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                    depth++;
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                    depth--;
             }
+        }
+    }
 
-            Attribute attr = elemPsngrOn.attribute("destination");
-            if (attr != null) {
-                for (Company cmpy : companies) {
-                    if(cmpy.getName().equalsIgnoreCase(attr.getValue()) && psngrOn!=null)
-                        psngrOn.setDestination(cmpy);
-                }
+    private static void Update(GameIndex index, String name, String destination, String status, String lobby) {
+        Passenger psngrOn = index.getPassenger(name);
 
-                // remove from the route
-                if (psngrOn.getRoute().contains(psngrOn.getDestination())) {
-                    psngrOn.getRoute().remove(psngrOn.getDestination());
-                }
-            }
+        if (destination != null) {
+            Company cmpy = index.getCompany(destination);
+            if (cmpy != null)
+                psngrOn.setDestination(cmpy);
 
-            // set props based on waiting, travelling, done
-            if (elemPsngrOn.attribute("status").getValue().equals("lobby")) {
-                for (Company cmpy : companies) {
-                    if (cmpy.getName().equalsIgnoreCase(elemPsngrOn.attribute("lobby").getValue()))
-                        psngrOn.setLobby(cmpy);
-                }
-                psngrOn.setCar(null);
-            } else if (elemPsngrOn.attribute("status").getValue().equals("travelling")) {
-                psngrOn.setLobby(null);
-                // psngrOn.Car set in Player update.
-            } else if (elemPsngrOn.attribute("status").getValue().equals("done")) {
-                TRAP.trap();
-                psngrOn.setDestination(null);
-                psngrOn.setLobby(null);
-                psngrOn.setCar(null);
+            // remove from the route
+            if (psngrOn.getRoute().contains(psngrOn.getDestination())) {
+                psngrOn.getRoute().remove(psngrOn.getDestination());
             }
         }
+
+        // set props based on waiting, travelling, done
+        if (status.equals("lobby")) {
+            Company cmpy = index.getCompany(lobby);
+            if (cmpy != null)
+                psngrOn.setLobby(cmpy);
+            psngrOn.setCar(null);
+        } else if (status.equals("travelling")) {
+            psngrOn.setLobby(null);
+            // psngrOn.Car set in Player update.
+        } else if (status.equals("done")) {
+            TRAP.trap();
+            psngrOn.setDestination(null);
+            psngrOn.setLobby(null);
+            psngrOn.setCar(null);
+        }
     }
 
     @Override
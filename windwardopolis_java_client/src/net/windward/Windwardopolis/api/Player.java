@@ -1,7 +1,10 @@
 package net.windward.Windwardopolis.api;
 
 import org.dom4j.Element;
-import org.dom4j.Attribute;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.awt.*;
 public class Player
 {
@@ -28,6 +31,19 @@ public class Player
 		privateGuid = value;
 	}
 
+	/**
+	 The dense id of this player (0 .. number of players - 1). Set when the GameIndex is built.
+	*/
+	private int privateId;
+	public final int getId()
+	{
+		return privateId;
+	}
+	final void setId(int value)
+	{
+		privateId = value;
+	}
+
 	/**
 	 The name of the player.
 	*/
@@ -111,66 +127,76 @@ public class Player
 		return players;
 	}
 
-	public static void UpdateFromXml(java.util.ArrayList<Player> players, java.util.ArrayList<Passenger> passengers, Element elemPlayers)
+	public static void UpdateFromXml(GameIndex index, Element elemPlayers)
 	{
 		for (Object objPlyrOn : elemPlayers.selectNodes("player"))
 		{
             Element elemPlyrOn = (Element)objPlyrOn;
-            Player plyrOn = null;
-            for(Player pl : players)
-            {
-                if(pl.getGuid().equals(elemPlyrOn.attribute("guid").getValue()))
-                    plyrOn = pl;
-            }
-
-            if (plyrOn != null) {
-                plyrOn.setScore(Float.parseFloat(elemPlyrOn.attribute("score").getValue()));
-            }
-
-            // car location
-			plyrOn.getLimo().setMapPosition(new Point(Integer.parseInt(elemPlyrOn.attribute("limo-x").getValue()), Integer.parseInt(elemPlyrOn.attribute("limo-y").getValue())));
-			plyrOn.getLimo().setAngle(Integer.parseInt(elemPlyrOn.attribute("limo-angle").getValue()));
-
-			// see if we now have a passenger.
-			Attribute attrPassenger = elemPlyrOn.attribute("passenger");
-			if (attrPassenger != null)
-			{
-                Passenger passenger = null;
-                for(Passenger psngr : passengers)
-                {
-                    if(psngr.getName().equals(attrPassenger.getValue()))
-                    {
-                        passenger = psngr;
-                    }
-                }
-				plyrOn.getLimo().setPassenger(passenger);
-                if (passenger != null) {
-                    passenger.setCar(plyrOn.getLimo());
-                }
-            }
-			else
+			Update(index, elemPlyrOn.attributeValue("guid"), elemPlyrOn.attributeValue("score"),
+					elemPlyrOn.attributeValue("limo-x"), elemPlyrOn.attributeValue("limo-y"), elemPlyrOn.attributeValue("limo-angle"),
+					elemPlyrOn.attributeValue("passenger"), elemPlyrOn.attributeValue("last-delivered"));
+		}
+	}
+
+	/**
+	 Update the players from a status message as it is read.
+
+	 @param reader Positioned on the start of the players element. Returns positioned on the end of it.
+	*/
+	public static void UpdateFromXml(GameIndex index, XMLStreamReader reader) throws XMLStreamException
+	{
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			Update(index, reader.getAttributeValue(null, "guid"), reader.getAttributeValue(null, "score"),
+					reader.getAttributeValue(null, "limo-x"), reader.getAttributeValue(null, "limo-y"), reader.getAttributeValue(null, "limo-angle"),
+					reader.getAttributeValue(null, "passenger"), reader.getAttributeValue(null, "last-delivered"));
+
+			// skip to the end of this player
+			for (int depth = 1; depth > 0; )
 			{
-				plyrOn.getLimo().setPassenger(null);
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+					depth++;
+				else if (event == XMLStreamConstants.END_ELEMENT)
+					depth--;
+			}
+		}
+	}
+
+	private static void Update(GameIndex index, String guid, String score, String limoX, String limoY, String limoAngle,
+							   String passengerName, String lastDelivered)
+	{
+		Player plyrOn = index.getPlayer(guid);
+
+		if (plyrOn != null) {
+			plyrOn.setScore(Float.parseFloat(score));
+		}
+
+		// car location
+		plyrOn.getLimo().setMapPosition(new Point(Integer.parseInt(limoX), Integer.parseInt(limoY)));
+		plyrOn.getLimo().setAngle(Integer.parseInt(limoAngle));
+
+		// see if we now have a passenger.
+		if (passengerName != null)
+		{
+			Passenger passenger = index.getPassenger(passengerName);
+			plyrOn.getLimo().setPassenger(passenger);
+			if (passenger != null) {
+				passenger.setCar(plyrOn.getLimo());
 			}
+		}
+		else
+		{
+			plyrOn.getLimo().setPassenger(null);
+		}
 
-			// add most recent delivery if we this is the first time we're told.
-			attrPassenger = elemPlyrOn.attribute("last-delivered");
-			if (attrPassenger != null)
+		// add most recent delivery if we this is the first time we're told.
+		if (lastDelivered != null)
+		{
+			Passenger passenger = index.getPassenger(lastDelivered);
+			if (!plyrOn.getPassengersDelivered().contains(passenger))
 			{
-                Passenger passenger = null;
-                for(Passenger psngr : passengers)
-                {
-                    if(psngr.getName().equals(attrPassenger.getValue()))
-                    {
-                        passenger = psngr;
-                    }
-                }
-
-
-				if (!plyrOn.getPassengersDelivered().contains(passenger))
-				{
-					plyrOn.getPassengersDelivered().add(passenger);
-				}
+				plyrOn.getPassengersDelivered().add(passenger);
 			}
 		}
 	}
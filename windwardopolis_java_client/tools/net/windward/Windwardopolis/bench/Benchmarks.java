@@ -0,0 +1,182 @@
+package net.windward.Windwardopolis.bench;
+
+import net.windward.Windwardopolis.AI.BusStopDistanceMatrix;
+import net.windward.Windwardopolis.AI.MyPlayerBrain;
+import net.windward.Windwardopolis.AI.RoadGraph;
+import net.windward.Windwardopolis.AI.SimpleAStar;
+import net.windward.Windwardopolis.Framework;
+import net.windward.Windwardopolis.OrderEncoder;
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.Passenger;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for the hot paths of the client, run against every server map:
+ *
+ * astar.cached     - SimpleAStar.CalculatePath between bus stops, answered from the route cache.
+ * astar.uncached   - the same with the route cache cleared before each call.
+ * field.path       - the same paths walked off the bus stop flow fields (BusStopDistanceMatrix.getPath).
+ * orders.encode    - OrderEncoder.Encode of a move with a stop to stop path and every passenger to pick up.
+ * setup            - Framework.ProcessMessage of the setup message (parse, map build, brain setup).
+ * status.update    - Framework.ProcessMessage of a status UPDATE (parse only - the A.I. does not reply).
+ * status.delivered - Framework.ProcessMessage of a PASSENGER_DELIVERED status (parse, pickup planning, path,
+ *                    orders) - the full decision loop.
+ *
+ * Run from windwardopolis_java_client with the compiled src and tools classes, src (for the avatar) and lib on the
+ * classpath:
+ *
+ *   java -cp classes:src:lib/* net.windward.Windwardopolis.bench.Benchmarks [name-prefix]
+ *
+ * -Dbench.warmup=ms and -Dbench.time=ms set the warmup and measurement time for each benchmark (default 1000 and
+ * 2000). -Dwindward.maps=dir is where the server map*.xml files are.
+ */
+public final class Benchmarks {
+
+    private static final long SEED = 1707;
+
+    public static void main(String[] args) throws Exception {
+        String prefix = args.length > 0 ? args[0] : "";
+        Harness harness = new Harness(Long.getLong("bench.warmup", 1000), Long.getLong("bench.time", 2000));
+        List<ServerMap> maps = ServerMap.LoadAll(ServerMap.DefaultDirectory());
+
+        PrintStream out = System.out;
+        // the framework and A.I. log every message - that would be most of what we measured.
+        PrintStream quiet = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        out.println(Harness.Result.Header());
+        for (ServerMap serverMap : maps) {
+            out.println(serverMap);
+            GameFixture fixture = new GameFixture(serverMap, SEED);
+            for (Benchmark bench : Benchmarks(fixture)) {
+                if (!bench.name.startsWith(prefix)) {
+                    continue;
+                }
+                System.setOut(quiet);
+                Harness.Result result;
+                try {
+                    result = harness.Run(bench.name, bench.op);
+                } finally {
+                    System.setOut(out);
+                }
+                out.println(result);
+            }
+        }
+    }
+
+    private static final class Benchmark {
+        private final String name;
+        private final Harness.Op op;
+
+        private Benchmark(String name, Harness.Op op) {
+            this.name = name;
+            this.op = op;
+        }
+    }
+
+    private static List<Benchmark> Benchmarks(final GameFixture fixture) throws Exception {
+        ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        Document doc = new SAXReader().read(new ByteArrayInputStream(fixture.getSetup()));
+        final ArrayList<Company> companies = Company.FromXml(doc.getRootElement().element("companies"));
+        final Map map = new Map(doc.getRootElement().element("map"), companies);
+        final Point[] stops = new Point[companies.size()];
+        for (int ind = 0; ind < stops.length; ind++) {
+            stops[ind] = companies.get(ind).getBusStop();
+        }
+        final int numPairs = stops.length * stops.length;
+
+        final Element mapElement = doc.getRootElement().element("map");
+        benchmarks.add(new Benchmark("map.graph", new Harness.Op() {
+            public Object run(int iteration) {
+                return new RoadGraph(new Map(mapElement, companies));
+            }
+        }));
+        benchmarks.add(new Benchmark("astar.cached", new Harness.Op() {
+            public Object run(int iteration) {
+                int pair = iteration % numPairs;
+                return SimpleAStar.CalculatePath(map, stops[pair / stops.length], stops[pair % stops.length]);
+            }
+        }));
+        benchmarks.add(new Benchmark("astar.uncached", new Harness.Op() {
+            public Object run(int iteration) {
+                int pair = iteration % numPairs;
+                SimpleAStar.getRouteCache().clear();
+                return SimpleAStar.CalculatePath(map, stops[pair / stops.length], stops[pair % stops.length]);
+            }
+        }));
+
+        final BusStopDistanceMatrix matrix = new BusStopDistanceMatrix(map, companies);
+        final RoadGraph graph = SimpleAStar.getRoadGraph(map);
+        benchmarks.add(new Benchmark("matrix.build", new Harness.Op() {
+            public Object run(int iteration) {
+                return new BusStopDistanceMatrix(graph, companies);
+            }
+        }));
+        final Company[] stopCompanies = companies.toArray(new Company[companies.size()]);
+        benchmarks.add(new Benchmark("field.path", new Harness.Op() {
+            public Object run(int iteration) {
+                int pair = iteration % numPairs;
+                return matrix.getPath(stops[pair / stops.length], stopCompanies[pair % stops.length]);
+            }
+        }));
+
+        final ArrayList<Passenger> passengers = Passenger.FromXml(doc.getRootElement().element("passengers"), companies);
+        final OrderEncoder encoder = new OrderEncoder();
+        benchmarks.add(new Benchmark("orders.encode", new Harness.Op() {
+            public Object run(int iteration) {
+                int pair = iteration % numPairs;
+                return encoder.Encode("move", matrix.getPath(stopCompanies[pair / stops.length], stopCompanies[pair % stops.length]), passengers);
+            }
+        }));
+
+        benchmarks.add(new Benchmark("setup", new Harness.Op() {
+            public Object run(int iteration) {
+                Framework framework = new Framework(new MyPlayerBrain(null));
+                framework.ProcessMessage(ByteBuffer.wrap(fixture.getSetup()));
+                return framework;
+            }
+        }));
+
+        final Framework framework = new Framework(new MyPlayerBrain(null));
+        benchmarks.add(new Benchmark("status.update", new Harness.Op() {
+            public Object run(int iteration) {
+                if (iteration == 0) {
+                    framework.ProcessMessage(ByteBuffer.wrap(fixture.getSetup()));
+                }
+                List<byte[]> updates = fixture.getUpdates();
+                framework.ProcessMessage(ByteBuffer.wrap(updates.get(iteration % updates.size())));
+                return framework;
+            }
+        }));
+        benchmarks.add(new Benchmark("status.delivered", new Harness.Op() {
+            public Object run(int iteration) {
+                if (iteration == 0) {
+                    framework.ProcessMessage(ByteBuffer.wrap(fixture.getSetup()));
+                }
+                List<byte[]> deliveries = fixture.getDeliveries();
+                framework.ProcessMessage(ByteBuffer.wrap(deliveries.get(iteration % deliveries.size())));
+                return framework;
+            }
+        }));
+        return benchmarks;
+    }
+}
@@ -0,0 +1,348 @@
+package net.windward.Windwardopolis.bench;
+
+import net.windward.Windwardopolis.OrderEncoder;
+import net.windward.Windwardopolis.AI.ArtifactCache;
+import net.windward.Windwardopolis.AI.BusStopDistanceMatrix;
+import net.windward.Windwardopolis.AI.FlowField;
+import net.windward.Windwardopolis.AI.RoadGraph;
+import net.windward.Windwardopolis.AI.SimpleAStar;
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.Passenger;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the fast versions of the hot paths give the same answers as what they replaced, on every server map.
+ * Benchmarks says how fast they are - this says they are still right.
+ *
+ * corridor - SimpleAStar.CalculateCost and CalculatePath (the CorridorGraph search and BuildPath) against the tile by
+ *            tile search of CalculatePaths, for every pair of bus stops. The path CalculatePath builds is costed
+ *            over the RoadGraph edges, so a path put together from the wrong corridors fails even if its cost is
+ *            right.
+ * orders   - OrderEncoder against building the orders as a dom4j Document and sending asXML() (as Framework did), for
+ *            random paths and passenger names with markup and non-ASCII characters in them, byte for byte.
+ * artifacts - ArtifactCache: a matrix built and saved, then loaded back from its file, against the one built. The
+ *            graph (every node, edge and in edge), each bus stop's flow field (the cost and next move of every state)
+ *            and the stop to stop costs and paths must all be the same. The files are written to the cache directory
+ *            (-Dwindward.cacheDir), as the client would write them.
+ *
+ * Run as Benchmarks is:
+ *
+ *   java -cp classes:src:lib/* net.windward.Windwardopolis.bench.Checks [name-prefix]
+ *
+ * Each failure is printed (the first few of each check), and the exit code is 1 if anything failed.
+ */
+public final class Checks {
+
+    private static final long SEED = 1707;
+
+    // failures printed per check and map - the count says how many there were.
+    private static final int MAX_PRINTED = 5;
+
+    private static final int NUM_ORDERS = 2000;
+
+    // what the random passenger names are made of - markup, quotes, the separator, 2 and 3 byte UTF-8 and a surrogate
+    // pair.
+    private static final String[] NAME_PARTS = {"a", "Z", "7", " ", "<", ">", "&", "&amp;", "\"", "'", ";", "]]>",
+            "\u00e9", "\u00df", "\u4e2d", "\u20ac", "\ud83d\ude00"};
+
+    public static void main(String[] args) throws Exception {
+        String prefix = args.length > 0 ? args[0] : "";
+        int failed = 0;
+        for (ServerMap serverMap : ServerMap.LoadAll(ServerMap.DefaultDirectory())) {
+            System.out.println(serverMap);
+            GameFixture fixture = new GameFixture(serverMap, SEED);
+            for (Check check : Checks(fixture)) {
+                if (!check.name.startsWith(prefix)) {
+                    continue;
+                }
+                Outcome outcome = new Outcome(check.name);
+                check.op.Run(outcome);
+                System.out.println(outcome);
+                failed += outcome.failed;
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * What a check compares.
+     */
+    private interface Op {
+        void Run(Outcome outcome) throws Exception;
+    }
+
+    private static final class Check {
+        private final String name;
+        private final Op op;
+
+        private Check(String name, Op op) {
+            this.name = name;
+            this.op = op;
+        }
+    }
+
+    /**
+     * The number of things a check compared and how many did not match.
+     */
+    private static final class Outcome {
+        private final String name;
+        private int compared;
+        private int failed;
+
+        private Outcome(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Count one comparison, and print it if it failed.
+         *
+         * @param ok   true if it matched.
+         * @param what What was compared - only made into a string if it failed.
+         */
+        void Compare(boolean ok, Object... what) {
+            compared++;
+            if (!ok) {
+                if (failed < MAX_PRINTED) {
+                    System.out.println("  " + name + " FAILED: " + Arrays.deepToString(what));
+                }
+                failed++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$-32s %2$8d compared %3$8d failed", name, compared, failed);
+        }
+    }
+
+    private static List<Check> Checks(final GameFixture fixture) throws Exception {
+        ArrayList<Check> checks = new ArrayList<Check>();
+
+        Document doc = new SAXReader().read(new ByteArrayInputStream(fixture.getSetup()));
+        final ArrayList<Company> companies = Company.FromXml(doc.getRootElement().element("companies"));
+        final Map map = new Map(doc.getRootElement().element("map"), companies);
+        final List<Point> stops = new ArrayList<Point>(companies.size());
+        for (Company company : companies) {
+            stops.add(company.getBusStop());
+        }
+
+        checks.add(new Check("corridor", new Op() {
+            public void Run(Outcome outcome) {
+                RoadGraph graph = SimpleAStar.getRoadGraph(map);
+                int[] costs = new int[stops.size()];
+                for (Point from : stops) {
+                    // the tile level search, which the corridors must match.
+                    ArrayList<ArrayList<Point>> paths = SimpleAStar.CalculatePaths(map, from, stops, costs);
+                    for (int ind = 0; ind < stops.size(); ind++) {
+                        Point to = stops.get(ind);
+                        // so neither answer comes from a route cached by the other.
+                        SimpleAStar.getRouteCache().clear();
+                        int cost = SimpleAStar.CalculateCost(map, from, to);
+                        SimpleAStar.getRouteCache().clear();
+                        ArrayList<Point> path = SimpleAStar.CalculatePath(map, from, to);
+                        int pathCost = SimpleAStar.last_cost;
+
+                        outcome.Compare(cost == costs[ind], "Search cost", from, to, cost, "tiles", costs[ind]);
+                        outcome.Compare(pathCost == costs[ind], "CalculatePath cost", from, to, pathCost, "tiles", costs[ind]);
+                        if (paths.get(ind).isEmpty()) {
+                            outcome.Compare(path.isEmpty(), "path where the tiles have none", from, to);
+                            continue;
+                        }
+                        outcome.Compare(!path.isEmpty() && path.get(0).equals(from) && path.get(path.size() - 1).equals(to),
+                                "BuildPath ends", from, to, path);
+                        outcome.Compare(DriveCost(graph, path) == costs[ind], "BuildPath driven", from, to, DriveCost(graph, path), "tiles", costs[ind]);
+                    }
+                }
+            }
+        }));
+
+        checks.add(new Check("orders", new Op() {
+            public void Run(Outcome outcome) throws Exception {
+                // different orders on each map.
+                Random random = new Random(SEED * 31 + Arrays.hashCode(fixture.getSetup()));
+                OrderEncoder encoder = new OrderEncoder();
+                for (int num = 0; num < NUM_ORDERS; num++) {
+                    String order = random.nextBoolean() ? "move" : "ready";
+                    // some long enough for the encoder to grow its buffer.
+                    int length = random.nextInt(8) == 0 ? random.nextInt(2000) : random.nextInt(20);
+                    ArrayList<Point> path = new ArrayList<Point>(length);
+                    for (int ind = 0; ind < length; ind++) {
+                        path.add(new Point(random.nextInt(1000) - 10, random.nextInt(1000) - 10));
+                    }
+                    List<Passenger> pickUp = RandomPassengers(random, random.nextInt(6));
+
+                    ByteBuffer frame = encoder.Encode(order, path, pickUp);
+                    byte[] encoded = new byte[frame.remaining()];
+                    frame.get(encoded);
+                    byte[] expected = DomFrame(order, path, pickUp);
+                    outcome.Compare(Arrays.equals(encoded, expected), order, path.size() + " points", pickUp.size() + " passengers",
+                            new String(encoded, 4, encoded.length - 4, "UTF-8"), new String(expected, 4, expected.length - 4, "UTF-8"));
+                }
+            }
+        }));
+
+        checks.add(new Check("artifacts", new Op() {
+            public void Run(Outcome outcome) {
+                String key = ArtifactCache.Key(map, companies);
+                BusStopDistanceMatrix built = ArtifactCache.Build(key, new RoadGraph(map), companies).join();
+                // so Load reads the file Build saved, not the matrix it kept.
+                ArtifactCache.Forget();
+                BusStopDistanceMatrix loaded = ArtifactCache.Load(key, companies);
+                outcome.Compare(loaded != null, "not loaded", key, ArtifactCache.DIRECTORY);
+                if (loaded == null) {
+                    return;
+                }
+                CompareGraphs(outcome, built.getGraph(), loaded.getGraph());
+                for (Company to : companies) {
+                    CompareFields(outcome, to.getName(), built.getField(to), loaded.getField(to), built.getGraph().getNumStates());
+                    for (Company from : companies) {
+                        outcome.Compare(built.getCost(from, to) == loaded.getCost(from, to), "stop cost", from.getName(), to.getName(),
+                                built.getCost(from, to), loaded.getCost(from, to));
+                        outcome.Compare(built.getPath(from, to).equals(loaded.getPath(from, to)), "stop path", from.getName(), to.getName());
+                    }
+                }
+            }
+        }));
+        return checks;
+    }
+
+    private static void CompareGraphs(Outcome outcome, RoadGraph built, RoadGraph loaded) {
+        outcome.Compare((built.getWidth() == loaded.getWidth()) && (built.getHeight() == loaded.getHeight())
+                && (built.getNumNodes() == loaded.getNumNodes()) && (built.getNumStates() == loaded.getNumStates())
+                && (built.getNumEdges() == loaded.getNumEdges()) && (built.getSignature() == loaded.getSignature()),
+                "graph sizes", built.getNumNodes(), loaded.getNumNodes(), built.getNumEdges(), loaded.getNumEdges());
+        if ((built.getNumStates() != loaded.getNumStates()) || (built.getNumEdges() != loaded.getNumEdges())) {
+            return;
+        }
+        for (int x = 0; x < built.getWidth(); x++) {
+            for (int y = 0; y < built.getHeight(); y++) {
+                outcome.Compare(built.NodeAt(x, y) == loaded.NodeAt(x, y), "node at", x, y);
+            }
+        }
+        for (int node = 0; node < built.getNumNodes(); node++) {
+            outcome.Compare((built.X(node) == loaded.X(node)) && (built.Y(node) == loaded.Y(node))
+                    && (built.OpenSides(node) == loaded.OpenSides(node)), "node", node);
+        }
+        for (int state = 0; state < built.getNumStates(); state++) {
+            boolean same = (built.FirstEdge(state) == loaded.FirstEdge(state)) && (built.EndEdge(state) == loaded.EndEdge(state))
+                    && (built.FirstInEdge(state) == loaded.FirstInEdge(state)) && (built.EndInEdge(state) == loaded.EndInEdge(state));
+            for (int edge = built.FirstEdge(state); same && (edge < built.EndEdge(state)); edge++) {
+                same = (built.EdgeTarget(edge) == loaded.EdgeTarget(edge)) && (built.EdgeCost(edge) == loaded.EdgeCost(edge));
+            }
+            for (int edge = built.FirstInEdge(state); same && (edge < built.EndInEdge(state)); edge++) {
+                same = (built.InEdgeSource(edge) == loaded.InEdgeSource(edge)) && (built.InEdgeCost(edge) == loaded.InEdgeCost(edge));
+            }
+            outcome.Compare(same, "edges of state", state);
+        }
+    }
+
+    private static void CompareFields(Outcome outcome, String to, FlowField built, FlowField loaded, int numStates) {
+        outcome.Compare(built.getDestination() == loaded.getDestination(), "field destination", to);
+        boolean same = true;
+        for (int state = 0; same && (state < numStates); state++) {
+            same = (built.StateCost(state) == loaded.StateCost(state)) && (built.NextState(state) == loaded.NextState(state));
+        }
+        outcome.Compare(same, "field", to);
+    }
+
+    // passengers with random names, made as the setup message makes them.
+    private static List<Passenger> RandomPassengers(Random random, int count) {
+        Element elemPassengers = DocumentHelper.createElement("passengers");
+        for (int ind = 0; ind < count; ind++) {
+            StringBuilder name = new StringBuilder();
+            for (int part = 1 + random.nextInt(8); part > 0; part--) {
+                name.append(NAME_PARTS[random.nextInt(NAME_PARTS.length)]);
+            }
+            // FromXml matches names without case, so make each one different.
+            name.append(ind);
+            elemPassengers.addElement("passenger").addAttribute("name", name.toString()).addAttribute("points-delivered", "0");
+        }
+        return Passenger.FromXml(elemPassengers, new ArrayList<Company>());
+    }
+
+    // the frame the orders were sent as before OrderEncoder - see Framework.PlayerOrdersEvent and TcpClient.SendMessage.
+    private static byte[] DomFrame(String order, List<Point> path, List<Passenger> pickUp) throws Exception {
+        Document xml = DocumentHelper.createDocument();
+        Element elem = DocumentHelper.createElement(order);
+        xml.add(elem);
+        if (path.size() > 0) {
+            StringBuilder buf = new StringBuilder();
+            for (Point ptOn : path) {
+                buf.append(String.valueOf(ptOn.x) + ',' + String.valueOf(ptOn.y) + ';');
+            }
+            Element newElem = DocumentHelper.createElement("path");
+            newElem.setText(buf.toString());
+            elem.add(newElem);
+        }
+        if (pickUp.size() > 0) {
+            StringBuilder buf = new StringBuilder();
+            for (Passenger psngrOn : pickUp) {
+                buf.append(psngrOn.getName() + ';');
+            }
+            Element newElem = DocumentHelper.createElement("pick-up");
+            newElem.setText(buf.toString());
+            elem.add(newElem);
+        }
+        byte[] bytes = xml.asXML().getBytes("UTF-8");
+        ByteBuffer frame = ByteBuffer.allocate(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(bytes.length);
+        frame.put(bytes);
+        return frame.array();
+    }
+
+    /**
+     * The cheapest way to drive exactly these tiles, in order, over the RoadGraph's edges (starting with any heading,
+     * as the searches do).
+     *
+     * @return The cost, -1 if the tiles can't be driven in that order.
+     */
+    static int DriveCost(RoadGraph graph, List<Point> path) {
+        if (path.isEmpty()) {
+            return -1;
+        }
+        int node = graph.NodeAt(path.get(0));
+        if (node < 0) {
+            return -1;
+        }
+        // cost[heading] - the cheapest way to be on the current tile going that way.
+        int[] cost = new int[4];
+        for (int ind = 1; ind < path.size(); ind++) {
+            int next = graph.NodeAt(path.get(ind));
+            int[] nextCost = new int[4];
+            Arrays.fill(nextCost, Integer.MAX_VALUE);
+            for (int heading = 0; heading < 4; heading++) {
+                if (cost[heading] == Integer.MAX_VALUE) {
+                    continue;
+                }
+                int state = RoadGraph.State(node, heading);
+                for (int edge = graph.FirstEdge(state), end = graph.EndEdge(state); edge < end; edge++) {
+                    int target = graph.EdgeTarget(edge);
+                    if (RoadGraph.NodeOfState(target) == next) {
+                        int nextHeading = RoadGraph.HeadingOfState(target);
+                        nextCost[nextHeading] = Math.min(nextCost[nextHeading], cost[heading] + graph.EdgeCost(edge));
+                    }
+                }
+            }
+            node = next;
+            cost = nextCost;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int heading = 0; heading < 4; heading++) {
+            best = Math.min(best, cost[heading]);
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+}
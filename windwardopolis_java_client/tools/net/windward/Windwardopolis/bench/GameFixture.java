@@ -0,0 +1,142 @@
+package net.windward.Windwardopolis.bench;
+
+import java.awt.*;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The messages the server would send for a game on one of its maps - a setup message and a series of status
+ * messages. Passengers, routes and enemies are made up from a seed so the same seed always gives the same bytes.
+ *
+ * We are player 0 (guid g0).
+ */
+public final class GameFixture {
+
+    public static final int NUM_PLAYERS = 4;
+    public static final int NUM_PASSENGERS = 20;
+    public static final String MY_GUID = "g0";
+
+    /**
+     * The number of different status messages of each kind.
+     */
+    private static final int NUM_STATUS = 16;
+
+    private final ServerMap map;
+    private final byte[] setup;
+    private final List<byte[]> updates;
+    private final List<byte[]> deliveries;
+
+    // passenger n waits at company lobby[n] to go to company destination[n].
+    private final int[] lobby;
+    private final int[] destination;
+
+    public GameFixture(ServerMap map, long seed) {
+        this.map = map;
+        Random rand = new Random(seed);
+        int numStops = map.getBusStops().size();
+
+        lobby = new int[NUM_PASSENGERS];
+        destination = new int[NUM_PASSENGERS];
+        StringBuilder buf = new StringBuilder();
+        buf.append("<setup game-start=\"true\" my-guid=\"").append(MY_GUID).append("\">");
+        map.AppendMapXml(buf);
+        buf.append("<players>");
+        for (int ind = 0; ind < NUM_PLAYERS; ind++) {
+            Point pt = StartPosition(ind);
+            buf.append("<player guid=\"g").append(ind).append("\" name=\"Player").append(ind).append("\" limo-x=\"").append(pt.x)
+                    .append("\" limo-y=\"").append(pt.y).append("\" limo-angle=\"0\" />");
+        }
+        buf.append("</players>");
+        map.AppendCompaniesXml(buf);
+        buf.append("<passengers>");
+        for (int ind = 0; ind < NUM_PASSENGERS; ind++) {
+            lobby[ind] = rand.nextInt(numStops);
+            destination[ind] = (lobby[ind] + 1 + rand.nextInt(numStops - 1)) % numStops;
+            buf.append("<passenger name=\"Passenger").append(ind).append("\" points-delivered=\"").append(1 + rand.nextInt(3))
+                    .append("\" lobby=\"").append(ServerMap.CompanyName(lobby[ind])).append("\" destination=\"").append(ServerMap.CompanyName(destination[ind])).append("\">");
+            for (int route = 0; route < 2; route++) {
+                buf.append("<route>").append(ServerMap.CompanyName(rand.nextInt(numStops))).append("</route>");
+            }
+            buf.append("<enemy>Passenger").append((ind + 1 + rand.nextInt(NUM_PASSENGERS - 1)) % NUM_PASSENGERS).append("</enemy>");
+            buf.append("</passenger>");
+        }
+        buf.append("</passengers></setup>");
+        setup = Utf8(buf);
+
+        ArrayList<byte[]> updates = new ArrayList<byte[]>();
+        ArrayList<byte[]> deliveries = new ArrayList<byte[]>();
+        for (int tick = 0; tick < NUM_STATUS; tick++) {
+            updates.add(Status("UPDATE", tick, rand));
+            deliveries.add(Status("PASSENGER_DELIVERED", tick, rand));
+        }
+        this.updates = Collections.unmodifiableList(updates);
+        this.deliveries = Collections.unmodifiableList(deliveries);
+    }
+
+    public ServerMap getMap() {
+        return map;
+    }
+
+    /**
+     * The setup message.
+     */
+    public byte[] getSetup() {
+        return setup;
+    }
+
+    /**
+     * Status UPDATE messages about us. The A.I. reads these but does not send orders.
+     */
+    public List<byte[]> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Status PASSENGER_DELIVERED messages about us, each with us at a different bus stop. The A.I. plans a new pickup
+     * order and path for each of these and sends orders.
+     */
+    public List<byte[]> getDeliveries() {
+        return deliveries;
+    }
+
+    private Point StartPosition(int player) {
+        List<Point> starts = map.getStartPositions().isEmpty() ? map.getBusStops() : map.getStartPositions();
+        return starts.get(player % starts.size());
+    }
+
+    private byte[] Status(String status, int tick, Random rand) {
+        List<Point> stops = map.getBusStops();
+        StringBuilder buf = new StringBuilder();
+        buf.append("<status status=\"").append(status).append("\" player-guid=\"").append(MY_GUID).append("\"><players>");
+        for (int ind = 0; ind < NUM_PLAYERS; ind++) {
+            Point pt = stops.get((tick + ind * 3) % stops.size());
+            buf.append("<player guid=\"g").append(ind).append("\" score=\"").append(tick / 4).append("\" limo-x=\"").append(pt.x)
+                    .append("\" limo-y=\"").append(pt.y).append("\" limo-angle=\"").append(90 * rand.nextInt(4)).append("\"");
+            if ((ind != 0) && (rand.nextInt(3) == 0)) {
+                buf.append(" last-delivered=\"Passenger").append(rand.nextInt(NUM_PASSENGERS)).append("\"");
+            }
+            buf.append(" />");
+        }
+        buf.append("</players><passengers>");
+        for (int ind = 0; ind < NUM_PASSENGERS; ind++) {
+            buf.append("<passenger name=\"Passenger").append(ind).append("\" destination=\"").append(ServerMap.CompanyName(destination[ind]))
+                    .append("\" status=\"lobby\" lobby=\"").append(ServerMap.CompanyName(lobby[ind])).append("\" />");
+        }
+        buf.append("</passengers><path>");
+        Point pt = stops.get(tick % stops.size());
+        buf.append(pt.x).append(',').append(pt.y).append(';');
+        buf.append("</path><pick-up>Passenger").append(tick % NUM_PASSENGERS).append(";</pick-up></status>");
+        return Utf8(buf);
+    }
+
+    private static byte[] Utf8(StringBuilder buf) {
+        try {
+            return buf.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
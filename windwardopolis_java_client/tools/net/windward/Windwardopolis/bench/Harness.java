@@ -0,0 +1,119 @@
+package net.windward.Windwardopolis.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times an operation and measures what it allocates. Each benchmark runs on the calling thread - first for a warmup
+ * period so the JIT has compiled it, then for a measurement period. Allocation is read from the thread's allocated
+ * byte counter (com.sun.management.ThreadMXBean) so it is exact for this thread and has no profiler overhead.
+ */
+public final class Harness {
+
+    /**
+     * The operation being measured.
+     */
+    public interface Op {
+        /**
+         * @param iteration Counts up from 0 across warmup and measurement.
+         * @return Anything - it is kept so the JIT cannot throw the work away.
+         */
+        Object run(int iteration) throws Exception;
+    }
+
+    /**
+     * One benchmark's measurement.
+     */
+    public static final class Result {
+        private final String name;
+        private final long ops;
+        private final long nanos;
+        private final long bytes;
+
+        private Result(String name, long ops, long nanos, long bytes) {
+            this.name = name;
+            this.ops = ops;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getOpsPerSecond() {
+            return ops * 1e9 / nanos;
+        }
+
+        public double getMicrosPerOp() {
+            return nanos / 1e3 / ops;
+        }
+
+        /**
+         * Bytes allocated per operation. -1 if the JVM cannot measure it.
+         */
+        public double getBytesPerOp() {
+            return bytes < 0 ? -1 : bytes / (double) ops;
+        }
+
+        /**
+         * Allocation rate in MB per second. -1 if the JVM cannot measure it.
+         */
+        public double getAllocMBPerSecond() {
+            return bytes < 0 ? -1 : bytes * 1e9 / nanos / (1024 * 1024);
+        }
+
+        public static String Header() {
+            return String.format("%1$-32s %2$14s %3$12s %4$12s %5$10s", "benchmark", "ops/s", "us/op", "B/op", "MB/s");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$-32s %2$14.1f %3$12.2f %4$12.0f %5$10.1f", name, getOpsPerSecond(), getMicrosPerOp(), getBytesPerOp(), getAllocMBPerSecond());
+        }
+    }
+
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final com.sun.management.ThreadMXBean threads;
+
+    @SuppressWarnings("unused")
+    private volatile Object sink;
+
+    /**
+     * @param warmupMillis  How long to run each benchmark before measuring.
+     * @param measureMillis How long to measure each benchmark.
+     */
+    public Harness(long warmupMillis, long measureMillis) {
+        warmupNanos = warmupMillis * 1000000L;
+        measureNanos = measureMillis * 1000000L;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ((bean instanceof com.sun.management.ThreadMXBean) && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+    }
+
+    public Result Run(String name, Op op) throws Exception {
+        int iteration = 0;
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            sink = op.run(iteration++);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threads == null ? 0 : threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        end = start + measureNanos;
+        long ops = 0;
+        long now;
+        do {
+            sink = op.run(iteration++);
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = threads == null ? -1 : threads.getThreadAllocatedBytes(threadId) - startBytes;
+        return new Result(name, ops, now - start, bytes);
+    }
+}
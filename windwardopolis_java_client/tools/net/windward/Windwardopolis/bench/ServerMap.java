@@ -0,0 +1,170 @@
+package net.windward.Windwardopolis.bench;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One of the server's map files (windwardopolis_server/Server/map*.xml). The server files list each tile as a
+ * square element and use slightly different attribute names than the setup message the server sends us - this
+ * reads the server file and writes the map element of a setup message from it.
+ *
+ * The server files do not name companies, so each BUS_STOP is given a company named Company0, Company1, ...
+ */
+public final class ServerMap {
+
+    /**
+     * The units-tile the server sends.
+     */
+    public static final int UNITS_PER_TILE = 24;
+
+    private final String name;
+    private final int width;
+    private final int height;
+    private final List<Element> squares;
+    private final List<Point> busStops;
+    private final List<Point> startPositions;
+
+    private ServerMap(String name, Element root) {
+        this.name = name;
+        width = Integer.parseInt(root.attributeValue("width"));
+        height = Integer.parseInt(root.attributeValue("height"));
+
+        ArrayList<Element> squares = new ArrayList<Element>();
+        ArrayList<Point> busStops = new ArrayList<Point>();
+        ArrayList<Point> startPositions = new ArrayList<Point>();
+        for (Object obj : root.elements("square")) {
+            Element elemOn = (Element) obj;
+            squares.add(elemOn);
+            Point pt = new Point(Integer.parseInt(elemOn.attributeValue("x")), Integer.parseInt(elemOn.attributeValue("y")));
+            if ("BUS_STOP".equals(elemOn.attributeValue("type"))) {
+                busStops.add(pt);
+            }
+            if (elemOn.attributeValue("start-position") != null) {
+                startPositions.add(pt);
+            }
+        }
+        this.squares = Collections.unmodifiableList(squares);
+        this.busStops = Collections.unmodifiableList(busStops);
+        this.startPositions = Collections.unmodifiableList(startPositions);
+    }
+
+    /**
+     * Read a server map file.
+     */
+    public static ServerMap Load(File file) throws IOException, DocumentException {
+        // the files start with a byte order mark.
+        String xml = new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8").replace("\uFEFF", "");
+        Document doc = new SAXReader().read(new StringReader(xml));
+        String name = file.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new ServerMap(name, doc.getRootElement());
+    }
+
+    /**
+     * Read map1.xml .. map7.xml (all that exist) from a directory.
+     */
+    public static List<ServerMap> LoadAll(File dir) throws IOException, DocumentException {
+        ArrayList<ServerMap> maps = new ArrayList<ServerMap>();
+        for (int num = 1; ; num++) {
+            File file = new File(dir, "map" + num + ".xml");
+            if (!file.isFile()) {
+                break;
+            }
+            maps.add(Load(file));
+        }
+        if (maps.isEmpty()) {
+            throw new IOException("no map*.xml files in " + dir.getAbsolutePath());
+        }
+        return maps;
+    }
+
+    /**
+     * The directory holding the server map files. -Dwindward.maps=dir, else the server project next to this one.
+     */
+    public static File DefaultDirectory() {
+        String dir = System.getProperty("windward.maps");
+        return new File(dir != null ? dir : "../windwardopolis_server/Server");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The BUS_STOP tiles, in file order. Company n is at getBusStops().get(n).
+     */
+    public List<Point> getBusStops() {
+        return busStops;
+    }
+
+    /**
+     * The tiles limos start on.
+     */
+    public List<Point> getStartPositions() {
+        return startPositions;
+    }
+
+    public static String CompanyName(int index) {
+        return "Company" + index;
+    }
+
+    /**
+     * Write the map element of a setup message.
+     */
+    public void AppendMapXml(StringBuilder buf) {
+        buf.append("<map width=\"").append(width).append("\" height=\"").append(height).append("\" units-tile=\"").append(UNITS_PER_TILE).append("\">");
+        for (Element elemOn : squares) {
+            String type = elemOn.attributeValue("type");
+            buf.append("<tile x=\"").append(elemOn.attributeValue("x")).append("\" y=\"").append(elemOn.attributeValue("y")).append("\" type=\"").append(type).append('"');
+            if (type.equals("ROAD") || type.equals("BUS_STOP")) {
+                buf.append(" direction=\"").append(elemOn.attributeValue("direction")).append('"');
+                String signs = elemOn.attributeValue("signals");
+                if (signs != null) {
+                    buf.append(" stop-sign=\"").append(signs).append('"');
+                }
+                if (elemOn.attributeValue("signal-direction") != null) {
+                    buf.append(" signal=\"true\"");
+                }
+            }
+            buf.append(" />");
+        }
+        buf.append("</map>");
+    }
+
+    /**
+     * Write the companies element of a setup message.
+     */
+    public void AppendCompaniesXml(StringBuilder buf) {
+        buf.append("<companies>");
+        for (int ind = 0; ind < busStops.size(); ind++) {
+            Point pt = busStops.get(ind);
+            buf.append("<company name=\"").append(CompanyName(ind)).append("\" bus-stop-x=\"").append(pt.x).append("\" bus-stop-y=\"").append(pt.y).append("\" />");
+        }
+        buf.append("</companies>");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%1$s (%2$sx%3$s, %4$s stops)", name, width, height, busStops.size());
+    }
+}
@@ -0,0 +1,323 @@
+package net.windward.Windwardopolis.sim;
+
+import net.windward.Windwardopolis.AI.PlayerAIBase;
+import net.windward.Windwardopolis.bench.GameFixture;
+import net.windward.Windwardopolis.bench.ServerMap;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * One game, played as fast as the A.I.s can decide. Limos move one tile per tick along the path their A.I. last
+ * ordered. Entering a bus stop drops off, abandons or picks up a passenger by the server's rules (Engine.cs) and every
+ * A.I. is told. Every UPDATE_INTERVAL ticks each A.I. gets an UPDATE (or NO_PATH) about itself.
+ *
+ * Unlike the server, limos move on any drivable tile regardless of lanes, signals and other cars.
+ */
+final class SimGame {
+
+    /**
+     * Ticks between status updates.
+     */
+    private static final int UPDATE_INTERVAL = 8;
+
+    /**
+     * Deliveries that win the game.
+     */
+    private static final int NUM_PASSENGERS_TO_WIN = 8;
+
+    private final SimPlayer[] players;
+    private final boolean[][] drivable;
+    // company at each bus stop.
+    private final HashMap<Point, Integer> stopAt = new HashMap<Point, Integer>();
+
+    // the limos.
+    private final Point[] limo;
+    // the direction of each limo's last move in degrees (0 is north, clockwise) - as the server reports it.
+    private final int[] angle;
+    private final List<ArrayDeque<Point>> path = new ArrayList<ArrayDeque<Point>>();
+    private final List<List<Integer>> pickUp = new ArrayList<List<Integer>>();
+    private final int[] carrying;
+    private final int[] score;
+    private final List<List<Integer>> delivered = new ArrayList<List<Integer>>();
+
+    // the passengers. -1 for none.
+    private final String[] psngrName;
+    private final int[] points;
+    private final int[] lobby;
+    private final int[] destination;
+    private final int[] car;
+    private final List<ArrayDeque<Integer>> route = new ArrayList<ArrayDeque<Integer>>();
+    private final List<List<Integer>> enemies = new ArrayList<List<Integer>>();
+
+    private int ticks;
+
+    SimGame(ServerMap map, long seed, int numPlayers) throws DocumentException {
+        GameFixture fixture = new GameFixture(map, seed);
+        Document doc = new SAXReader().read(new ByteArrayInputStream(fixture.getSetup()));
+        Element setup = doc.getRootElement();
+
+        drivable = new boolean[map.getWidth()][map.getHeight()];
+        for (Object obj : setup.element("map").elements("tile")) {
+            Element elemOn = (Element) obj;
+            String type = elemOn.attributeValue("type");
+            if (type.equals("ROAD") || type.equals("BUS_STOP")) {
+                drivable[Integer.parseInt(elemOn.attributeValue("x"))][Integer.parseInt(elemOn.attributeValue("y"))] = true;
+            }
+        }
+        HashMap<String, Integer> companyIndex = new HashMap<String, Integer>();
+        for (int ind = 0; ind < map.getBusStops().size(); ind++) {
+            stopAt.put(map.getBusStops().get(ind), ind);
+            companyIndex.put(ServerMap.CompanyName(ind), ind);
+        }
+
+        List<?> elemPlayers = setup.element("players").elements("player");
+        numPlayers = Math.min(numPlayers, elemPlayers.size());
+        limo = new Point[numPlayers];
+        angle = new int[numPlayers];
+        carrying = new int[numPlayers];
+        score = new int[numPlayers];
+        for (int ind = 0; ind < numPlayers; ind++) {
+            Element elemOn = (Element) elemPlayers.get(ind);
+            limo[ind] = new Point(Integer.parseInt(elemOn.attributeValue("limo-x")), Integer.parseInt(elemOn.attributeValue("limo-y")));
+            angle[ind] = Integer.parseInt(elemOn.attributeValue("limo-angle"));
+            path.add(new ArrayDeque<Point>());
+            pickUp.add(new ArrayList<Integer>());
+            carrying[ind] = -1;
+            delivered.add(new ArrayList<Integer>());
+        }
+
+        List<?> elemPsngrs = setup.element("passengers").elements("passenger");
+        HashMap<String, Integer> psngrIndex = new HashMap<String, Integer>();
+        psngrName = new String[elemPsngrs.size()];
+        points = new int[psngrName.length];
+        lobby = new int[psngrName.length];
+        destination = new int[psngrName.length];
+        car = new int[psngrName.length];
+        for (int ind = 0; ind < psngrName.length; ind++) {
+            Element elemOn = (Element) elemPsngrs.get(ind);
+            psngrName[ind] = elemOn.attributeValue("name");
+            psngrIndex.put(psngrName[ind], ind);
+            points[ind] = Integer.parseInt(elemOn.attributeValue("points-delivered"));
+            lobby[ind] = companyIndex.get(elemOn.attributeValue("lobby"));
+            destination[ind] = companyIndex.get(elemOn.attributeValue("destination"));
+            car[ind] = -1;
+            ArrayDeque<Integer> stops = new ArrayDeque<Integer>();
+            for (Object objRoute : elemOn.elements("route")) {
+                stops.add(companyIndex.get(((Element) objRoute).getText()));
+            }
+            route.add(stops);
+        }
+        for (int ind = 0; ind < psngrName.length; ind++) {
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            for (Object objEnemy : ((Element) elemPsngrs.get(ind)).elements("enemy")) {
+                list.add(psngrIndex.get(((Element) objEnemy).getText()));
+            }
+            enemies.add(list);
+        }
+
+        players = new SimPlayer[numPlayers];
+        for (int ind = 0; ind < numPlayers; ind++) {
+            players[ind] = new SimPlayer(setup, ((Element) elemPlayers.get(ind)).attributeValue("guid"));
+            TakeOrders(ind);
+        }
+    }
+
+    /**
+     * Play until someone wins, every passenger is delivered, or maxTicks.
+     */
+    void Play(int maxTicks) {
+        while ((ticks < maxTicks) && (!IsOver())) {
+            ticks++;
+            for (int plyr = 0; plyr < players.length; plyr++) {
+                Move(plyr);
+            }
+            if (ticks % UPDATE_INTERVAL == 0) {
+                for (int plyr = 0; plyr < players.length; plyr++) {
+                    PlayerAIBase.STATUS status = path.get(plyr).isEmpty() ? PlayerAIBase.STATUS.NO_PATH : PlayerAIBase.STATUS.UPDATE;
+                    Tell(plyr, status, Collections.singletonList(players[plyr]));
+                }
+            }
+        }
+    }
+
+    int getTicks() {
+        return ticks;
+    }
+
+    SimPlayer[] getPlayers() {
+        return players;
+    }
+
+    int getScore(int plyr) {
+        return score[plyr];
+    }
+
+    int getNumDelivered(int plyr) {
+        return delivered.get(plyr).size();
+    }
+
+    private boolean IsOver() {
+        boolean waiting = false;
+        for (int plyr = 0; plyr < players.length; plyr++) {
+            if (delivered.get(plyr).size() >= NUM_PASSENGERS_TO_WIN) {
+                return true;
+            }
+        }
+        for (int psngr = 0; psngr < psngrName.length; psngr++) {
+            waiting |= (lobby[psngr] >= 0) || (car[psngr] >= 0);
+        }
+        return !waiting;
+    }
+
+    private void Move(int plyr) {
+        ArrayDeque<Point> steps = path.get(plyr);
+        Point at = limo[plyr];
+        while ((!steps.isEmpty()) && steps.peek().equals(at)) {
+            steps.poll();
+        }
+        if (steps.isEmpty()) {
+            return;
+        }
+        Point next = steps.poll();
+        boolean adjacent = Math.abs(next.x - at.x) + Math.abs(next.y - at.y) == 1;
+        if ((!adjacent) || (next.x < 0) || (next.y < 0) || (next.x >= drivable.length) || (next.y >= drivable[0].length) || (!drivable[next.x][next.y])) {
+            // the server would stop the limo - it waits for a NO_PATH update.
+            steps.clear();
+            return;
+        }
+        angle[plyr] = next.x > at.x ? 90 : (next.x < at.x ? 270 : (next.y > at.y ? 180 : 0));
+        limo[plyr] = next;
+        Integer cmpny = stopAt.get(next);
+        if (cmpny != null) {
+            EnterBusStop(plyr, cmpny);
+        }
+    }
+
+    /**
+     * Engine.LimoEntersBusStop
+     */
+    private void EnterBusStop(int plyr, int cmpny) {
+        PlayerAIBase.STATUS status = PlayerAIBase.STATUS.PASSENGER_NO_ACTION;
+        int abandoned = -1;
+        int psngr = carrying[plyr];
+        if (psngr >= 0) {
+            boolean noDrop = false;
+            for (int enemy : enemies.get(psngr)) {
+                noDrop |= (lobby[enemy] == cmpny) && (car[enemy] < 0);
+            }
+            if (noDrop) {
+                status = PlayerAIBase.STATUS.PASSENGER_REFUSED;
+            } else if (destination[psngr] == cmpny) {
+                score[plyr] += points[psngr];
+                delivered.get(plyr).add(psngr);
+                Integer next = route.get(psngr).poll();
+                destination[psngr] = next == null ? -1 : next;
+                lobby[psngr] = next == null ? -1 : cmpny;
+                car[psngr] = -1;
+                carrying[plyr] = -1;
+                status = PlayerAIBase.STATUS.PASSENGER_DELIVERED;
+            } else {
+                abandoned = psngr;
+                lobby[psngr] = cmpny;
+                car[psngr] = -1;
+                carrying[plyr] = -1;
+                status = PlayerAIBase.STATUS.PASSENGER_ABANDONED;
+            }
+        }
+
+        if (carrying[plyr] < 0) {
+            for (int pick : pickUp.get(plyr)) {
+                if ((lobby[pick] == cmpny) && (car[pick] < 0) && (!delivered.get(plyr).contains(pick)) && (pick != abandoned)) {
+                    lobby[pick] = -1;
+                    car[pick] = plyr;
+                    carrying[plyr] = pick;
+                    pickUp.get(plyr).remove(Integer.valueOf(pick));
+                    status = status == PlayerAIBase.STATUS.PASSENGER_NO_ACTION ? PlayerAIBase.STATUS.PASSENGER_PICKED_UP : PlayerAIBase.STATUS.PASSENGER_DELIVERED_AND_PICKED_UP;
+                    break;
+                }
+            }
+        }
+
+        Tell(plyr, status, java.util.Arrays.asList(players));
+    }
+
+    /**
+     * Send a status about one player to A.I.s and apply any orders they send back.
+     */
+    private void Tell(int subject, PlayerAIBase.STATUS status, List<SimPlayer> to) {
+        Element elemPlayers = DocumentHelper.createElement("players");
+        for (int plyr = 0; plyr < players.length; plyr++) {
+            Element elemOn = elemPlayers.addElement("player");
+            elemOn.addAttribute("guid", players[plyr].getGuid());
+            elemOn.addAttribute("score", Integer.toString(score[plyr]));
+            elemOn.addAttribute("limo-x", Integer.toString(limo[plyr].x));
+            elemOn.addAttribute("limo-y", Integer.toString(limo[plyr].y));
+            elemOn.addAttribute("limo-angle", Integer.toString(angle[plyr]));
+            if (carrying[plyr] >= 0) {
+                elemOn.addAttribute("passenger", psngrName[carrying[plyr]]);
+            }
+            List<Integer> done = delivered.get(plyr);
+            if (!done.isEmpty()) {
+                elemOn.addAttribute("last-delivered", psngrName[done.get(done.size() - 1)]);
+            }
+        }
+        Element elemPsngrs = DocumentHelper.createElement("passengers");
+        for (int psngr = 0; psngr < psngrName.length; psngr++) {
+            Element elemOn = elemPsngrs.addElement("passenger");
+            elemOn.addAttribute("name", psngrName[psngr]);
+            if (destination[psngr] >= 0) {
+                elemOn.addAttribute("destination", ServerMap.CompanyName(destination[psngr]));
+            }
+            if (car[psngr] >= 0) {
+                elemOn.addAttribute("status", "travelling");
+            } else if (lobby[psngr] >= 0) {
+                elemOn.addAttribute("status", "lobby");
+                elemOn.addAttribute("lobby", ServerMap.CompanyName(lobby[psngr]));
+            } else {
+                elemOn.addAttribute("status", "done");
+            }
+        }
+        ArrayList<Point> subjectPath = new ArrayList<Point>(path.get(subject));
+        ArrayList<String> subjectPickUp = new ArrayList<String>();
+        for (int psngr : pickUp.get(subject)) {
+            subjectPickUp.add(psngrName[psngr]);
+        }
+
+        for (SimPlayer plyrOn : to) {
+            plyrOn.Status(status, players[subject].getGuid(), elemPlayers, elemPsngrs, subjectPath, subjectPickUp);
+        }
+        for (int plyr = 0; plyr < players.length; plyr++) {
+            TakeOrders(plyr);
+        }
+    }
+
+    private void TakeOrders(int plyr) {
+        ArrayList<Point> newPath = players[plyr].TakePath();
+        if (newPath != null) {
+            path.get(plyr).clear();
+            path.get(plyr).addAll(newPath);
+        }
+        ArrayList<String> newPickUp = players[plyr].TakePickUp();
+        if (newPickUp != null) {
+            pickUp.get(plyr).clear();
+            for (String name : newPickUp) {
+                for (int psngr = 0; psngr < psngrName.length; psngr++) {
+                    if (psngrName[psngr].equals(name)) {
+                        pickUp.get(plyr).add(psngr);
+                    }
+                }
+            }
+        }
+    }
+}
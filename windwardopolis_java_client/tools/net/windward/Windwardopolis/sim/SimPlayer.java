@@ -0,0 +1,138 @@
+package net.windward.Windwardopolis.sim;
+
+import net.windward.Windwardopolis.AI.MyPlayerBrain;
+import net.windward.Windwardopolis.AI.PlayerAIBase;
+import net.windward.Windwardopolis.api.Company;
+import net.windward.Windwardopolis.api.GameIndex;
+import net.windward.Windwardopolis.api.Map;
+import net.windward.Windwardopolis.api.Passenger;
+import net.windward.Windwardopolis.api.Player;
+import org.dom4j.Element;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One A.I. in a simulated game. It has its own copy of the game objects, built from the setup message and updated
+ * from each status the same way Framework does, and its brain is called directly.
+ */
+final class SimPlayer {
+
+    private final String guid;
+    private final MyPlayerBrain brain;
+    private final GameIndex index;
+    private final ArrayList<Player> players;
+    private final ArrayList<Passenger> passengers;
+
+    // the last orders sent. null when taken.
+    private ArrayList<Point> orderedPath;
+    private ArrayList<String> orderedPickUp;
+
+    private long numDecisions;
+    private long decisionNanos;
+    private long maxDecisionNanos;
+
+    /**
+     * Create the A.I. and call its Setup.
+     *
+     * @param setup The setup message.
+     * @param guid  Which player this is.
+     */
+    SimPlayer(Element setup, String guid) {
+        this.guid = guid;
+        brain = new MyPlayerBrain("Sim-" + guid);
+        players = Player.FromXml(setup.element("players"));
+        ArrayList<Company> companies = Company.FromXml(setup.element("companies"));
+        passengers = Passenger.FromXml(setup.element("passengers"), companies);
+        Map map = new Map(setup.element("map"), companies);
+        index = new GameIndex(players, companies, passengers);
+
+        long start = System.nanoTime();
+        brain.Setup(map, index.getPlayer(guid), players, companies, passengers, new PlayerAIBase.PlayerOrdersEvent() {
+            public void invoke(String order, ArrayList<Point> path, ArrayList<Passenger> pickUp) {
+                Orders(path, pickUp);
+            }
+        });
+        Decided(System.nanoTime() - start);
+    }
+
+    String getGuid() {
+        return guid;
+    }
+
+    long getNumDecisions() {
+        return numDecisions;
+    }
+
+    long getDecisionNanos() {
+        return decisionNanos;
+    }
+
+    long getMaxDecisionNanos() {
+        return maxDecisionNanos;
+    }
+
+    /**
+     * Pass a status to the A.I.
+     *
+     * @param status        The status.
+     * @param subject       The guid of the player the status is about.
+     * @param elemPlayers   The players element of the status message.
+     * @param elemPsngrs    The passengers element of the status message.
+     * @param subjectPath   The subject's path.
+     * @param subjectPickUp The names of the subject's passengers to pick up.
+     */
+    void Status(PlayerAIBase.STATUS status, String subject, Element elemPlayers, Element elemPsngrs, List<Point> subjectPath, List<String> subjectPickUp) {
+        Player.UpdateFromXml(index, elemPlayers);
+        Passenger.UpdateFromXml(index, elemPsngrs);
+        Player plyrStatus = index.getPlayer(subject);
+        plyrStatus.getLimo().getPath().clear();
+        plyrStatus.getLimo().getPath().addAll(subjectPath);
+        plyrStatus.getPickUp().clear();
+        for (String name : subjectPickUp) {
+            plyrStatus.getPickUp().add(index.getPassenger(name));
+        }
+
+        long start = System.nanoTime();
+        brain.GameStatus(status, plyrStatus, players, passengers);
+        Decided(System.nanoTime() - start);
+    }
+
+    /**
+     * The path ordered since the last call. null if none.
+     */
+    ArrayList<Point> TakePath() {
+        ArrayList<Point> path = orderedPath;
+        orderedPath = null;
+        return path;
+    }
+
+    /**
+     * The names of the passengers to pick up ordered since the last call. null if none.
+     */
+    ArrayList<String> TakePickUp() {
+        ArrayList<String> pickUp = orderedPickUp;
+        orderedPickUp = null;
+        return pickUp;
+    }
+
+    private void Orders(ArrayList<Point> path, ArrayList<Passenger> pickUp) {
+        // as the server does - an empty list leaves what it had.
+        if (path.size() > 0) {
+            orderedPath = new ArrayList<Point>(path);
+        }
+        if (pickUp.size() > 0) {
+            orderedPickUp = new ArrayList<String>(pickUp.size());
+            for (Passenger psngrOn : pickUp) {
+                orderedPickUp.add(psngrOn.getName());
+            }
+        }
+    }
+
+    private void Decided(long nanos) {
+        numDecisions++;
+        decisionNanos += nanos;
+        maxDecisionNanos = Math.max(maxDecisionNanos, nanos);
+    }
+}
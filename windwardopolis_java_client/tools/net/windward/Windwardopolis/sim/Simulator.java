@@ -0,0 +1,94 @@
+package net.windward.Windwardopolis.sim;
+
+import net.windward.Windwardopolis.ClientMetrics;
+import net.windward.Windwardopolis.bench.ServerMap;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays games between MyPlayerBrain A.I.s with no server, no sockets and no waiting - each game runs as fast as the
+ * A.I.s decide. Games go round robin over the server maps, each with its own seed.
+ *
+ *   java -cp classes:src:lib/* net.windward.Windwardopolis.sim.Simulator [games]
+ *
+ * -Dsim.players=N  players per game (default 4).
+ * -Dsim.ticks=N    ticks before a game is stopped (default 2000).
+ * -Dsim.threads=N  games run at once (default 1). More than the number of cores measures the A.I. under CPU load.
+ * -Dsim.seed=N     seed of the first game (default 1).
+ * -Dwindward.maps=dir is where the server map*.xml files are.
+ */
+public final class Simulator {
+
+    public static void main(String[] args) throws Exception {
+        int numGames = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int numPlayers = Integer.getInteger("sim.players", 4);
+        final int maxTicks = Integer.getInteger("sim.ticks", 2000);
+        int numThreads = Integer.getInteger("sim.threads", 1);
+        long seed = Long.getLong("sim.seed", 1);
+        List<ServerMap> maps = ServerMap.LoadAll(ServerMap.DefaultDirectory());
+
+        PrintStream out = System.out;
+        // the A.I. logs as it goes.
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        ArrayList<Future<SimGame>> games = new ArrayList<Future<SimGame>>();
+        for (int ind = 0; ind < numGames; ind++) {
+            final ServerMap map = maps.get(ind % maps.size());
+            final long gameSeed = seed + ind;
+            games.add(pool.submit(new java.util.concurrent.Callable<SimGame>() {
+                public SimGame call() throws Exception {
+                    SimGame game = new SimGame(map, gameSeed, numPlayers);
+                    game.Play(maxTicks);
+                    return game;
+                }
+            }));
+        }
+
+        long ticks = 0;
+        long decisions = 0;
+        long decisionNanos = 0;
+        long maxDecisionNanos = 0;
+        long totalScore = 0;
+        long firstScore = 0;
+        int numScores = 0;
+        for (Future<SimGame> future : games) {
+            SimGame game = future.get();
+            ticks += game.getTicks();
+            SimPlayer[] players = game.getPlayers();
+            for (int plyr = 0; plyr < players.length; plyr++) {
+                decisions += players[plyr].getNumDecisions();
+                decisionNanos += players[plyr].getDecisionNanos();
+                maxDecisionNanos = Math.max(maxDecisionNanos, players[plyr].getMaxDecisionNanos());
+                totalScore += game.getScore(plyr);
+                numScores++;
+            }
+            firstScore += game.getScore(0);
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.setOut(out);
+
+        out.println(String.format("%1$s games on %2$s maps, %3$s players, %4$s threads, %5$.1f seconds", numGames, maps.size(), numPlayers, numThreads, seconds));
+        out.println(String.format("games/hour: %1$.0f  ticks/s: %2$.0f", numGames * 3600 / seconds, ticks / seconds));
+        out.println(String.format("decisions: %1$s  decisions/s: %2$.0f  mean: %3$.1f us  max: %4$.1f ms", decisions, decisions / seconds,
+                decisions == 0 ? 0 : decisionNanos / 1e3 / decisions, maxDecisionNanos / 1e6));
+        out.println(String.format("mean score: %1$.2f  player 0: %2$.2f", totalScore / (double) Math.max(numScores, 1), firstScore / (double) Math.max(numGames, 1)));
+        out.print(ClientMetrics.get().getSnapshot());
+    }
+}